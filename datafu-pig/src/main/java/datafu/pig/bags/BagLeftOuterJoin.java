@@ -23,7 +23,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -39,6 +38,8 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
 
 import datafu.pig.util.AliasableEvalFunc;
+import datafu.pig.util.FieldNotFound;
+import datafu.pig.util.HashPartitioner;
 
 /**
  * Performs an in-memory left outer join across multiple bags.
@@ -73,13 +74,27 @@ public class BagLeftOuterJoin extends AliasableEvalFunc<DataBag>
   private static final String BAG_NAMES_PROPERTY = "BagLeftOuterJoin_BAG_NAMES";
   private static final String BAG_NAME_TO_JOIN_PREFIX_PROPERTY = "BagLeftOuterJoin_BAG_NAME_TO_JOIN_PREFIX";
   private static final String BAG_NAME_TO_SIZE_PROPERTY = "BagLeftOuterJoin_BAG_NAME_TO_SIZE_PROPERTY";
+  private static final String DEFAULT_MAX_TUPLES_IN_MEMORY = "1000000";
   
   ArrayList<String> bagNames;
   Map<String, String> bagNameToJoinKeyPrefix;  
   Map<String, Integer> bagNameToSize;
   
+  private final int maxTuplesInMemory;
+  
   public BagLeftOuterJoin() {
-    
+    this(DEFAULT_MAX_TUPLES_IN_MEMORY);
+  }
+  
+  /**
+   * @param maxTuplesInMemory the most tuples from the bags being joined to the first bag to hold in hash tables at once.
+   *        If there are more, all the bags are first split by join key into partitions, which are joined separately.
+   */
+  public BagLeftOuterJoin(String maxTuplesInMemory) {
+    this.maxTuplesInMemory = Integer.parseInt(maxTuplesInMemory);
+    if (this.maxTuplesInMemory <= 0) {
+      throw new IllegalArgumentException("Maximum tuples in memory must be positive, but found " + maxTuplesInMemory);
+    }
   }
   
   @SuppressWarnings("unchecked")
@@ -91,77 +106,11 @@ public class BagLeftOuterJoin extends AliasableEvalFunc<DataBag>
     bagNameToSize = (Map<String, Integer>) properties.get(BAG_NAME_TO_SIZE_PROPERTY);
   }
   
-  class JoinCollector
+  private int getKeyPosition(String keyName) throws ExecException
   {
-    HashMap<Object, List<Tuple>> joinData;
-    
-    public void printJoinData() throws ExecException {
-      printData(joinData);
-    }
-    
-    public void printData(HashMap<Object, List<Tuple>> data) throws ExecException {
-      for (Object o : data.keySet()) {
-        System.out.println(o);
-        for (Tuple t : data.get(o)) {
-          System.out.println("\t"+t.toDelimitedString(", "));
-        }
-      }
-    }
-    
-    public HashMap<Object, List<Tuple>> groupTuples(Iterable<Tuple> tuples, String keyName) throws ExecException {
-      HashMap<Object, List<Tuple>> group = new HashMap<Object, List<Tuple>>();
-      for (Tuple tuple : tuples) {
-        Object key = getObject(tuple, keyName);
-        if (!group.containsKey(key)) {
-          group.put(key, new LinkedList<Tuple>());
-        }
-        group.get(key).add(tuple);
-      }
-      return group;
-    }
-    
-    public HashMap<Object, List<Tuple>> insertNullTuples(HashMap<Object, List<Tuple>> groupedData, int tupleSize) throws ExecException {
-      Tuple nullTuple = TupleFactory.getInstance().newTuple(tupleSize);
-      for (int i=0; i<tupleSize; i++) {
-        nullTuple.set(i, null);
-      }     
-      for (Object key : joinData.keySet()) {
-        if (!groupedData.containsKey(key)) {
-          groupedData.put(key, Collections.singletonList(nullTuple));
-        }
-      }
-      return groupedData;      
-    }
-    
-    public void joinTuples(Object key, List<Tuple> tuples) throws ExecException {
-      List<Tuple> currentTuples = joinData.get(key);
-      if (currentTuples != null) {
-        List<Tuple> newTuples = new LinkedList<Tuple>();
-        if (tuples != null) {
-          for (Tuple t1 : currentTuples) {
-            for (Tuple t2 : tuples) {
-              Tuple t = TupleFactory.getInstance().newTuple();
-              for (Object o : t1.getAll()) {
-                t.append(o);
-              }
-              for (Object o : t2.getAll()) {
-                t.append(o);
-              }
-              newTuples.add(t);
-            }
-          }
-        }
-        joinData.put(key, newTuples);
-      }      
-    }    
-    
-    public HashMap<Object, List<Tuple>> getJoinData() {
-      return this.joinData;
-    }
-    
-    public void setJoinData(HashMap<Object, List<Tuple>> joinData) {
-      this.joinData = joinData;
-    }
+    Integer position = getPosition(keyName);
+    if (position == null) throw new FieldNotFound("Attempt to reference unknown alias: "+keyName+"\n Instance Properties: "+getInstanceProperties());
+    return position;
   }
 
   @Override
@@ -174,42 +123,123 @@ public class BagLeftOuterJoin extends AliasableEvalFunc<DataBag>
       joinKeyNames.add((String) input.get(i));
     }
     
-    JoinCollector collector = new JoinCollector();
-    // the first bag is the outer bag
-    String leftBagName = bagNames.get(0);
-    DataBag leftBag = getBag(input, leftBagName);
-    String leftBagJoinKeyName = getPrefixedAliasName(bagNameToJoinKeyPrefix.get(leftBagName), joinKeyNames.get(0));    
-    collector.setJoinData(collector.groupTuples(leftBag, leftBagJoinKeyName));
-    // now, for each additional bag, group up the tuples by the join key, then join them in
-    if (bagNames.size() > 1) {
-      for (int i = 1; i < bagNames.size(); i++) {
-        String bagName = bagNames.get(i);
-        DataBag bag = getBag(input, bagName);
-        String joinKeyName = getPrefixedAliasName(bagNameToJoinKeyPrefix.get(bagName), joinKeyNames.get(i));
-        int tupleSize = bagNameToSize.get(bagName);
-        if (bag == null) throw new IOException("Error in instance: "+getInstanceName()
-                + " with properties: " + getInstanceProperties()
-                + " and tuple: " + input.toDelimitedString(", ")
-                + " -- Expected bag, got null");
-        HashMap<Object, List<Tuple>> groupedData = collector.groupTuples(bag, joinKeyName);
-        // outer join, so go back in and add nulls;
-        groupedData = collector.insertNullTuples(groupedData, tupleSize);
-        for (Map.Entry<Object, List<Tuple>> entry : groupedData.entrySet()) {
-          collector.joinTuples(entry.getKey(), entry.getValue());          
-        }
-      }      
+    // the first bag is the outer bag, which is streamed through, while the other bags are built into hash tables
+    int numBags = bagNames.size();
+    DataBag[] bags = new DataBag[numBags];
+    int[] keyPositions = new int[numBags];
+    Tuple[] nullTuples = new Tuple[numBags];
+    long buildSize = 0;
+    for (int i = 0; i < numBags; i++) {
+      String bagName = bagNames.get(i);
+      bags[i] = getBag(input, bagName);
+      if (bags[i] == null) throw new IOException("Error in instance: "+getInstanceName()
+              + " with properties: " + getInstanceProperties()
+              + " and tuple: " + input.toDelimitedString(", ")
+              + " -- Expected bag, got null");
+      keyPositions[i] = getKeyPosition(getPrefixedAliasName(bagNameToJoinKeyPrefix.get(bagName), joinKeyNames.get(i)));
+      if (i > 0) {
+        // outer join, so tuples without a match are joined to nulls
+        nullTuples[i] = TupleFactory.getInstance().newTuple(bagNameToSize.get(bagName));
+        buildSize += bags[i].size();
+      }
     }
     
-    // assemble output bag
     DataBag outputBag = BagFactory.getInstance().newDefaultBag();
-    for (List<Tuple> tuples : collector.getJoinData().values()) {
-      for (Tuple tuple : tuples) {
-        outputBag.add(tuple);
+    if (buildSize <= maxTuplesInMemory) {
+      join(bags, keyPositions, nullTuples, outputBag);
+    }
+    else {
+      int numPartitions = HashPartitioner.numPartitions(buildSize, maxTuplesInMemory);
+      for (DataBag[] partition : HashPartitioner.partition(bags, numPartitions, new JoinKeyExtractor(keyPositions))) {
+        join(partition, keyPositions, nullTuples, outputBag);
+        progress();
       }
     }
 
     return outputBag;
   }
+  
+  /**
+   * Joins each tuple of the first bag with the matching tuples from each of the other bags, adding the
+   * joined tuples to the output bag as they are produced.
+   */
+  @SuppressWarnings("unchecked")
+  private void join(DataBag[] bags, int[] keyPositions, Tuple[] nullTuples, DataBag outputBag) throws ExecException
+  {
+    int numBags = bags.length;
+    List<Map<Object, List<Tuple>>> tables = new ArrayList<Map<Object, List<Tuple>>>(numBags);
+    tables.add(null);
+    for (int i = 1; i < numBags; i++) {
+      Map<Object, List<Tuple>> table = new HashMap<Object, List<Tuple>>();
+      for (Tuple tuple : bags[i]) {
+        Object key = tuple.get(keyPositions[i]);
+        List<Tuple> tuples = table.get(key);
+        if (tuples == null) {
+          tuples = new ArrayList<Tuple>(1);
+          table.put(key, tuples);
+        }
+        tuples.add(tuple);
+      }
+      tables.add(table);
+    }
+    
+    List<Tuple>[] matches = new List[numBags];
+    int[] indexes = new int[numBags];
+    for (Tuple left : bags[0]) {
+      Object key = left.get(keyPositions[0]);
+      for (int i = 1; i < numBags; i++) {
+        List<Tuple> tuples = tables.get(i).get(key);
+        matches[i] = tuples != null ? tuples : Collections.singletonList(nullTuples[i]);
+        indexes[i] = 0;
+      }
+      
+      // emit the cross product of the matches, with the last bag varying fastest
+      while (true) {
+        int size = left.size();
+        for (int i = 1; i < numBags; i++) {
+          size += matches[i].get(indexes[i]).size();
+        }
+        Tuple joined = TupleFactory.getInstance().newTuple(size);
+        int position = copyFields(left, joined, 0);
+        for (int i = 1; i < numBags; i++) {
+          position = copyFields(matches[i].get(indexes[i]), joined, position);
+        }
+        outputBag.add(joined);
+        
+        int i = numBags - 1;
+        while (i > 0 && ++indexes[i] == matches[i].size()) {
+          indexes[i] = 0;
+          i--;
+        }
+        if (i == 0) {
+          break;
+        }
+      }
+    }
+  }
+  
+  private static int copyFields(Tuple from, Tuple to, int position) throws ExecException {
+    for (int i = 0; i < from.size(); i++) {
+      to.set(position++, from.get(i));
+    }
+    return position;
+  }
+  
+  /**
+   * Gets the join key of the tuples of each bag, so that matching tuples land in the same partition.
+   */
+  private static class JoinKeyExtractor implements HashPartitioner.KeyExtractor {
+    private final int[] keyPositions;
+    
+    JoinKeyExtractor(int[] keyPositions) {
+      this.keyPositions = keyPositions;
+    }
+    
+    @Override
+    public Object getKey(Tuple tuple, int bag) throws ExecException {
+      return tuple.get(keyPositions[bag]);
+    }
+  }
 
   @Override
   public Schema getOutputSchema(Schema input)
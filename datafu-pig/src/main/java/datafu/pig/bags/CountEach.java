@@ -19,11 +19,16 @@
 
 package datafu.pig.bags;
 
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
 
 import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
@@ -56,20 +61,53 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * } 
  * </pre>
  * </p>
+ * 
+ * <p>
+ * The number of distinct tuples held in memory is bounded by an optional second argument, 
+ * which defaults to 1,000,000.  When the bound is exceeded the partial counts are sorted and spilled 
+ * to disk, then merged when the output is produced.  Pass anything other than 'flatten' as the first
+ * argument to set the bound without flattening:
+ * </p>
+ * 
+ * <pre>
+ * {@code
+ * DEFINE CountEachBounded datafu.pig.bags.CountEach('', '100000');
+ * }
+ * </pre>
+ * 
+ * <p>
+ * This UDF is algebraic, so partial counts are combined map-side.
+ * </p>
  */
-public class CountEach extends AccumulatorEvalFunc<DataBag>
+public class CountEach extends AccumulatorEvalFunc<DataBag> implements Algebraic
 {
-  private boolean flatten = false;
-  private Map<Tuple, Integer> counts = new HashMap<Tuple, Integer>();
+  private static final int DEFAULT_MAX_TUPLES_IN_MEMORY = 1000000;
+  
+  private final String flattenArg;
+  private final boolean flatten;
+  private final int maxTuplesInMemory;
+  private Counts counts;
   
   public CountEach() {
-    
+    this("", Integer.toString(DEFAULT_MAX_TUPLES_IN_MEMORY));
   }
   
   public CountEach(String arg) {
-    if (arg != null && arg.toLowerCase().equals("flatten")) {
-      flatten = true;
+    this(arg, Integer.toString(DEFAULT_MAX_TUPLES_IN_MEMORY));
+  }
+  
+  public CountEach(String arg, String maxTuplesInMemory) {
+    this.flattenArg = arg == null ? "" : arg;
+    this.flatten = isFlatten(arg);
+    this.maxTuplesInMemory = Integer.parseInt(maxTuplesInMemory);
+    if (this.maxTuplesInMemory <= 0) {
+      throw new IllegalArgumentException("maxTuplesInMemory must be positive");
     }
+    this.counts = new Counts(this.maxTuplesInMemory);
+  }
+  
+  private static boolean isFlatten(String arg) {
+    return arg != null && arg.toLowerCase().equals("flatten");
   }
 
   @Override
@@ -79,32 +117,19 @@ public class CountEach extends AccumulatorEvalFunc<DataBag>
     if (inputBag == null) throw new IllegalArgumentException("Expected a bag, got null");
     
     for (Tuple tuple : inputBag) {
-      if (!counts.containsKey(tuple)) {
-        counts.put(tuple, 0);
-      }
-      counts.put(tuple, counts.get(tuple)+1);
+      counts.add(tuple, 1);
     }
   }
 
   @Override
   public DataBag getValue()
   {
-    DataBag output = BagFactory.getInstance().newDefaultBag();
-    for (Tuple tuple : counts.keySet()) {
-      Tuple outputTuple = null;
-      Tuple innerTuple = TupleFactory.getInstance().newTuple(tuple.getAll());
-      if (flatten) {        
-        innerTuple.append(counts.get(tuple));
-        outputTuple = innerTuple;
-      } else {
-        outputTuple = TupleFactory.getInstance().newTuple();
-        outputTuple.append(innerTuple);
-        outputTuple.append(counts.get(tuple));
-      }
-      output.add(outputTuple);
+    try {
+      return counts.toBag(flatten);
+    }
+    catch (ExecException e) {
+      throw new RuntimeException(e);
     }
-
-    return output;
   }
 
   @Override
@@ -113,6 +138,265 @@ public class CountEach extends AccumulatorEvalFunc<DataBag>
     counts.clear();
   }
   
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName() + "('" + flattenArg + "','" + maxTuplesInMemory + "')";
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + "('" + flattenArg + "','" + maxTuplesInMemory + "')";
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + "('" + flattenArg + "','" + maxTuplesInMemory + "')";
+  }
+  
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    private final int maxTuplesInMemory;
+    
+    public Initial(String arg, String maxTuplesInMemory)
+    {
+      this.maxTuplesInMemory = Integer.parseInt(maxTuplesInMemory);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      DataBag inputBag = (DataBag)input.get(0);
+      if (inputBag == null) throw new IllegalArgumentException("Expected a bag, got null");
+      
+      Counts counts = new Counts(maxTuplesInMemory);
+      for (Tuple tuple : inputBag) {
+        counts.add(tuple, 1);
+      }
+      return TupleFactory.getInstance().newTuple(counts.toPartialBag());
+    }
+  }
+  
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final int maxTuplesInMemory;
+    
+    public Intermediate(String arg, String maxTuplesInMemory)
+    {
+      this.maxTuplesInMemory = Integer.parseInt(maxTuplesInMemory);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      Counts counts = mergePartials(new Counts(maxTuplesInMemory), (DataBag)input.get(0));
+      return TupleFactory.getInstance().newTuple(counts.toPartialBag());
+    }
+  }
+  
+  static public class Final extends EvalFunc<DataBag>
+  {
+    private final boolean flatten;
+    private final int maxTuplesInMemory;
+    
+    public Final(String arg, String maxTuplesInMemory)
+    {
+      this.flatten = isFlatten(arg);
+      this.maxTuplesInMemory = Integer.parseInt(maxTuplesInMemory);
+    }
+
+    @Override
+    public DataBag exec(Tuple input) throws IOException
+    {
+      return mergePartials(new Counts(maxTuplesInMemory), (DataBag)input.get(0)).toBag(flatten);
+    }
+  }
+  
+  /**
+   * Adds the partial counts produced by {@link Initial} or {@link Intermediate} to the given counts.
+   * 
+   * @param counts counts to add to
+   * @param partials bag of tuples, each holding a bag of (tuple, count) pairs
+   * @return the counts
+   * @throws ExecException
+   */
+  private static Counts mergePartials(Counts counts, DataBag partials) throws ExecException
+  {
+    for (Tuple partial : partials) {
+      DataBag pairs = (DataBag)partial.get(0);
+      for (Tuple pair : pairs) {
+        counts.add((Tuple)pair.get(0), (Integer)pair.get(1));
+      }
+    }
+    return counts;
+  }
+  
+  /**
+   * Counts distinct tuples in a primitive hash map holding at most a fixed number of tuples.
+   * When the map grows past that size its counts are moved to a sorted bag, which is spilled 
+   * to disk as a sorted run.  Reading the sorted bag merges the runs, which brings equal 
+   * tuples together so their counts can be summed.
+   */
+  private static class Counts
+  {
+    private final int maxTuplesInMemory;
+    private final Object2IntOpenHashMap<Tuple> counts = new Object2IntOpenHashMap<Tuple>();
+    private DataBag spilled;
+    
+    Counts(int maxTuplesInMemory)
+    {
+      this.maxTuplesInMemory = maxTuplesInMemory;
+    }
+    
+    void add(Tuple tuple, int count) throws ExecException
+    {
+      counts.addTo(tuple, count);
+      if (counts.size() > maxTuplesInMemory) {
+        moveToSpilled();
+        spilled.spill();
+      }
+    }
+    
+    private void moveToSpilled() throws ExecException
+    {
+      if (spilled == null) {
+        spilled = BagFactory.getInstance().newSortedBag(null);
+      }
+      for (Object2IntMap.Entry<Tuple> entry : counts.object2IntEntrySet()) {
+        spilled.add(pair(entry.getKey(), entry.getIntValue()));
+      }
+      counts.clear();
+      counts.trim();
+    }
+    
+    private static Tuple pair(Tuple tuple, int count) throws ExecException
+    {
+      Tuple pair = TupleFactory.getInstance().newTuple(2);
+      pair.set(0, tuple);
+      pair.set(1, count);
+      return pair;
+    }
+    
+    /**
+     * Produces the (tuple, count) pairs, with each distinct tuple appearing once.
+     */
+    private Iterator<Tuple> pairs() throws ExecException
+    {
+      if (spilled == null) {
+        final Iterator<Object2IntMap.Entry<Tuple>> entries = counts.object2IntEntrySet().iterator();
+        return new Iterator<Tuple>() {
+          @Override
+          public boolean hasNext()
+          {
+            return entries.hasNext();
+          }
+
+          @Override
+          public Tuple next()
+          {
+            Object2IntMap.Entry<Tuple> entry = entries.next();
+            try {
+              return pair(entry.getKey(), entry.getIntValue());
+            }
+            catch (ExecException e) {
+              throw new RuntimeException(e);
+            }
+          }
+
+          @Override
+          public void remove()
+          {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+      
+      moveToSpilled();
+      final Iterator<Tuple> sorted = spilled.iterator();
+      return new Iterator<Tuple>() {
+        private Tuple pending = sorted.hasNext() ? sorted.next() : null;
+        
+        @Override
+        public boolean hasNext()
+        {
+          return pending != null;
+        }
+
+        @Override
+        public Tuple next()
+        {
+          try {
+            Tuple tuple = (Tuple)pending.get(0);
+            int count = (Integer)pending.get(1);
+            pending = null;
+            while (sorted.hasNext()) {
+              Tuple next = sorted.next();
+              if (tuple.compareTo(next.get(0)) != 0) {
+                pending = next;
+                break;
+              }
+              count += (Integer)next.get(1);
+            }
+            return pair(tuple, count);
+          }
+          catch (ExecException e) {
+            throw new RuntimeException(e);
+          }
+        }
+
+        @Override
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+    
+    void clear()
+    {
+      counts.clear();
+      counts.trim();
+      if (spilled != null) {
+        spilled.clear();
+        spilled = null;
+      }
+    }
+    
+    DataBag toPartialBag() throws ExecException
+    {
+      DataBag output = BagFactory.getInstance().newDefaultBag();
+      for (Iterator<Tuple> pairs = pairs(); pairs.hasNext();) {
+        output.add(pairs.next());
+      }
+      return output;
+    }
+    
+    DataBag toBag(boolean flatten) throws ExecException
+    {
+      DataBag output = BagFactory.getInstance().newDefaultBag();
+      for (Iterator<Tuple> pairs = pairs(); pairs.hasNext();) {
+        Tuple pair = pairs.next();
+        Tuple tuple = (Tuple)pair.get(0);
+        Tuple outputTuple;
+        if (flatten) {
+          outputTuple = TupleFactory.getInstance().newTuple(tuple.size() + 1);
+          for (int i=0; i<tuple.size(); i++) {
+            outputTuple.set(i, tuple.get(i));
+          }
+          outputTuple.set(tuple.size(), pair.get(1));
+        } else {
+          outputTuple = TupleFactory.getInstance().newTuple(2);
+          outputTuple.set(0, TupleFactory.getInstance().newTuple(tuple.getAll()));
+          outputTuple.set(1, pair.get(1));
+        }
+        output.add(outputTuple);
+      }
+      return output;
+    }
+  }
+  
   @Override
   public Schema outputSchema(Schema input)
   {
@@ -20,16 +20,14 @@
 package datafu.pig.bags;
 
 import java.io.IOException;
-import java.util.Arrays;
 
 import org.apache.pig.EvalFunc;
-import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
-import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
-import org.apache.pig.tools.pigstats.PigStatusReporter;
+
+import datafu.pig.util.LazyPairsBag;
 
 /**
  * Generates pairs of all items in a bag.
@@ -50,50 +48,18 @@ import org.apache.pig.tools.pigstats.PigStatusReporter;
  * } 
  * </pre>
  * </p>
+ * 
+ * <p>
+ * The pairs are generated as the output bag is iterated over rather than stored, see {@link LazyPairsBag}.
+ * They are materialized when Pig serializes the output, for example when storing it.
+ * </p>
  */
 public class UnorderedPairs extends EvalFunc<DataBag>
 {
-  private static final BagFactory bagFactory = BagFactory.getInstance();
-  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
-
   @Override
   public DataBag exec(Tuple input) throws IOException
   {
-    PigStatusReporter reporter = PigStatusReporter.getInstance();
-
-    try {
-      DataBag inputBag = (DataBag) input.get(0);
-      DataBag outputBag = bagFactory.newDefaultBag();
-      long i=0, j, cnt=0;
-
-      if (inputBag != null)
-      {
-        for (Tuple elem1 : inputBag) {
-          j = 0; 
-          for (Tuple elem2 : inputBag) {
-            if (j > i) {
-              outputBag.add(tupleFactory.newTuple(Arrays.asList(elem1, elem2)));
-              cnt++;
-            }
-            j++;
-  
-            if (reporter != null)
-              reporter.progress();
-  
-            if (cnt % 1000000 == 0) {
-              outputBag.spill();
-              cnt = 0;
-            }
-          }
-          i++;
-        }
-      }
-      
-      return outputBag;
-    }
-    catch (Exception e) {
-      throw new RuntimeException("Caught exception processing input of " + this.getClass().getName(), e);
-    }
+    return new LazyPairsBag((DataBag) input.get(0));
   }
 
   @Override
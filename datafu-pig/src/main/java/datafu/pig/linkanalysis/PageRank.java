@@ -93,11 +93,22 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * <li>
  * <b>spill_to_edge_disk_storage</b>: Used to conserve memory.  When "true" it causes the edge data to be written to disk in a temp file instead
  * of being held in memory when the number of edges exceeds a threshold.  The nodes are still held in memory however.  
- * Each iteration of PageRank will stream through the edges stored on disk.  The default is "false".
+ * The edges are stored in compressed sparse row form and memory mapped, so each iteration of PageRank reads them at page
+ * cache speed.  The default is "false".
  * </li>
  * <li>
  * <b>max_edges_in_memory</b>: When spilling edges to disk is enabled, this is the threshold which triggers that behavior.  The default is 30M.
  * </li>
+ * <li>
+ * <b>threads</b>: The number of threads used to distribute rank across the edges on each iteration.  The edges are split into
+ * one chunk per thread and the contributions from each chunk are merged at the end of each iteration.  The default is 1.
+ * </li>
+ * <li>
+ * <b>delta_threshold</b>: When set, enables delta updates.  After the first iteration each node only pushes the change in its rank
+ * along its outgoing edges, and only once the accumulated change exceeds this threshold.  Nodes whose rank has settled are skipped
+ * along with their edges, so later iterations only touch the parts of the graph which are still changing.  The number of active
+ * nodes and edges is logged for each iteration.  Disabled by default.
+ * </li>
  * </ul>
  * 
  * <p>
@@ -152,6 +163,8 @@ public class PageRank extends AccumulatorEvalFunc<DataBag>
   private boolean enableNodeBiasing = false;
   private boolean aborted = false;
   private float alpha = 0.85f;
+  private int threads = 1;
+  private float deltaThreshold = 0.0f;
 
   TupleFactory tupleFactory = TupleFactory.getInstance();
   BagFactory bagFactory = BagFactory.getInstance();
@@ -204,6 +217,14 @@ public class PageRank extends AccumulatorEvalFunc<DataBag>
       {
         alpha = Float.parseFloat(value);
       }
+      else if (parameterName.equals("threads"))
+      {
+        threads = Integer.parseInt(value);
+      }
+      else if (parameterName.equals("delta_threshold"))
+      {
+        deltaThreshold = Float.parseFloat(value);
+      }
     }
 
     initialize();
@@ -240,6 +261,16 @@ public class PageRank extends AccumulatorEvalFunc<DataBag>
 
     this.graph.setEdgeCachingThreshold(maxEdgesInMemory);
     this.graph.setAlpha(alpha);
+    this.graph.setThreadCount(threads);
+    
+    if (deltaThreshold > 0.0f)
+    {
+      this.graph.enableDeltaUpdates(deltaThreshold);
+    }
+    else
+    {
+      this.graph.disableDeltaUpdates();
+    }
   }
 
   @Override
@@ -339,6 +370,11 @@ public class PageRank extends AccumulatorEvalFunc<DataBag>
         return null;
       }
       iter++;
+      if (graph.isDeltaUpdatesEnabled())
+      {
+        System.out.println(String.format("Iteration %d: %d active nodes, %d active edges, total rank change %e", 
+                                         iter, graph.getActiveNodeCount(), graph.getActiveEdgeCount(), totalDiff));
+      }
     } while(iter < maxIters && totalDiff > tolerance);
     System.out.println(String.format("Done, %d iterations took %f ms", iter, (System.nanoTime() - startTime)/10.0e6));
 
@@ -24,19 +24,26 @@ import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-
-import com.google.common.collect.AbstractIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * An implementation of {@link <a href="http://en.wikipedia.org/wiki/PageRank" target="_blank">PageRank</a>}, used by the {@link PageRank} UDF.
@@ -55,23 +62,61 @@ public class PageRankImpl
   // edge weights (which are doubles) are multiplied by this value so they can be stored as integers internally
   private static float EDGE_WEIGHT_MULTIPLIER = 100000;
     
+  // Node ids are mapped to dense indices 0..N-1 in the order the nodes are first seen.  The edges are stored
+  // using these indices so iterations never need to look up a node id.
   private final Int2IntOpenHashMap nodeIndices = new Int2IntOpenHashMap();
-  private final FloatArrayList nodeData = new FloatArrayList(); // rank, total weight, contribution, bias(optional), (repeat)
-  private int nodeFieldCount = 3; // unless biasing is enabled
+  private final FloatArrayList nodeBiases = new FloatArrayList(); // indexed by node index, only when biasing is enabled
+  
+  // node data indexed by node index, allocated by init once all nodes have been added
+  private float[] ranks;
+  private float[] totalWeights;
+  private float[] contributions;
   
-  private final IntArrayList danglingNodes = new IntArrayList();
+  private final IntArrayList danglingNodes = new IntArrayList(); // node indices
   
-  private final IntArrayList edges = new IntArrayList(); // source, dest node count... dest id, weight pos, (repeat)
+  // Edges are stored in compressed sparse row (CSR) form.  Each call to addNode adds a row holding the source node index
+  // and the offset of its first edge within the destination and weight arrays.
+  private final IntArrayList edgeSources = new IntArrayList();
+  private final IntArrayList edgeOffsets = new IntArrayList(); // closed off with the total edge count by init
+  private final IntArrayList edgeDests = new IntArrayList();
+  private final IntArrayList edgeWeights = new IntArrayList();
+  
+  // read only views of the destination and weight arrays, either wrapping the lists above or mapped from disk
+  private EdgeArray dests;
+  private EdgeArray weights;
   
   private boolean shouldHandleDanglingNodes = false;
   private boolean shouldCacheEdgesOnDisk = false;
   private long edgeCachingThreshold;
   private boolean nodeBiasingEnabled = false;
   
-  private File edgesFile;
-  private DataOutputStream edgeDataOutputStream;
+  private File destsFile;
+  private File weightsFile;
+  private DataOutputStream destsOutputStream;
+  private DataOutputStream weightsOutputStream;
   private boolean usingEdgeDiskCache;
   
+  // number of threads used to distribute rank across the edges
+  private int threadCount = 1;
+  private ExecutorService executor;
+  
+  // rows at which each thread's chunk begins, followed by the row count
+  private int[] chunkOffsets;
+  
+  // per-thread contributions, indexed by node index, which are merged once each thread completes
+  private float[][] chunkContributions;
+  private long[] chunkActiveEdgeCounts;
+  
+  // When delta updates are enabled, after the first iteration each node only pushes the change in its rank
+  // along its outgoing edges, and only once that change exceeds the threshold.
+  private float deltaThreshold = 0.0f;
+  private float[] deltas; // rank change not yet pushed, indexed by node index
+  private float[] pushes; // rank change being pushed in the current iteration, indexed by node index
+  private boolean deltaIterating;
+  
+  private long activeNodeCount;
+  private long activeEdgeCount;
+  
   public void clear() throws IOException
   {
     this.edgeCount = 0;
@@ -79,18 +124,50 @@ public class PageRankImpl
     this.totalRankChange = 0.0f;
     
     this.nodeIndices.clear();
-    this.nodeData.clear();
-    this.edges.clear();
+    this.nodeBiases.clear();
+    this.ranks = null;
+    this.totalWeights = null;
+    this.contributions = null;
+    this.edgeSources.clear();
+    this.edgeOffsets.clear();
+    this.edgeDests.clear();
+    this.edgeWeights.clear();
     this.danglingNodes.clear();
     
-    if (edgeDataOutputStream != null)
+    closeEdgeFiles();
+    
+    this.dests = null;
+    this.weights = null;
+    
+    if (this.destsFile != null)
+    {
+      this.destsFile.delete();
+      this.destsFile = null;
+    }
+    
+    if (this.weightsFile != null)
     {
-      this.edgeDataOutputStream.close();
-      this.edgeDataOutputStream = null;
+      this.weightsFile.delete();
+      this.weightsFile = null;
     }
     
     this.usingEdgeDiskCache = false;
-    this.edgesFile = null;
+    
+    if (this.executor != null)
+    {
+      this.executor.shutdownNow();
+      this.executor = null;
+    }
+    
+    this.chunkOffsets = null;
+    this.chunkContributions = null;
+    this.chunkActiveEdgeCounts = null;
+    
+    this.deltas = null;
+    this.pushes = null;
+    this.deltaIterating = false;
+    this.activeNodeCount = 0;
+    this.activeEdgeCount = 0;
   }
   
   /**
@@ -119,13 +196,11 @@ public class PageRankImpl
    public void enableNodeBiasing()
    {
      this.nodeBiasingEnabled = true;
-     this.nodeFieldCount = 4;
    }
    
    public void disableNodeBiasing()
    {
      this.nodeBiasingEnabled = false;
-     this.nodeFieldCount = 3;
    }
    
   
@@ -183,6 +258,82 @@ public class PageRankImpl
     edgeCachingThreshold = count;
   }
   
+  /**
+   * Gets the number of threads used to distribute rank across the edges on each iteration.
+   * @return thread count
+   */
+  public int getThreadCount()
+  {
+    return threadCount;
+  }
+  
+  /**
+   * Sets the number of threads used to distribute rank across the edges on each iteration (default is 1).
+   * The edges are split into one chunk per thread, with each thread accumulating contributions into
+   * its own buffer.  The buffers are merged at the end of each pass.
+   * @param threadCount number of threads
+   */
+  public void setThreadCount(int threadCount)
+  {
+    if (threadCount < 1)
+    {
+      throw new IllegalArgumentException("Thread count must be at least 1");
+    }
+    this.threadCount = threadCount;
+  }
+  
+  /**
+   * Enables delta updates (disabled by default).  The first iteration distributes the full rank of every node.
+   * After that each node accumulates the change in its rank and only pushes it along its outgoing edges
+   * once its absolute value exceeds the threshold.  Nodes whose rank has settled are therefore skipped
+   * along with all of their edges.  The ranks converge to the same values as with full iterations,
+   * to within an error governed by the threshold.
+   * @param threshold change in rank a node must accumulate before it is pushed
+   */
+  public void enableDeltaUpdates(float threshold)
+  {
+    if (threshold <= 0.0f)
+    {
+      throw new IllegalArgumentException("Delta threshold must be positive");
+    }
+    this.deltaThreshold = threshold;
+  }
+  
+  /**
+   * Disables delta updates (disabled by default).
+   */
+  public void disableDeltaUpdates()
+  {
+    this.deltaThreshold = 0.0f;
+  }
+  
+  /**
+   * Gets whether delta updates are enabled.
+   * @return True if delta updates are enabled.
+   */
+  public boolean isDeltaUpdatesEnabled()
+  {
+    return this.deltaThreshold > 0.0f;
+  }
+  
+  /**
+   * Gets the number of nodes which distributed rank in the last iteration.
+   * @return active node count
+   */
+  public long getActiveNodeCount()
+  {
+    return this.activeNodeCount;
+  }
+  
+  /**
+   * Gets the number of edges which rank was distributed along in the last iteration.
+   * @return active edge count
+   */
+  public long getActiveEdgeCount()
+  {
+    return this.activeEdgeCount;
+  }
+  
   /**
    * Enables dangling node handling (disabled by default).
    */
@@ -217,7 +368,7 @@ public class PageRankImpl
   public float getNodeRank(int nodeId)
   {
     int nodeIndex = this.nodeIndices.get(nodeId);
-    return nodeData.get(nodeIndex);
+    return this.ranks[nodeIndex];
   }
   
   public float getTotalRankChange()
@@ -225,26 +376,26 @@ public class PageRankImpl
     return this.totalRankChange;
   }
   
-  private void maybeCreateNode(int nodeId)
+  private int maybeCreateNode(int nodeId)
   {
     // create from node if it doesn't already exist
     if (!nodeIndices.containsKey(nodeId))
     {      
-      int index = this.nodeData.size();
-      
-      this.nodeData.add(0.0f); // rank
-      this.nodeData.add(0.0f); // total weight
-      this.nodeData.add(0.0f); // contribution
+      int index = (int)this.nodeCount;
       
       if (this.nodeBiasingEnabled)
       {
-        this.nodeData.add(0.0f); // bias
+        this.nodeBiases.add(0.0f);
       }      
       
       this.nodeIndices.put(nodeId, index);
       
       this.nodeCount++;
+      
+      return index;
     }
+    
+    return nodeIndices.get(nodeId);
   }
   
   public float getNodeBias(int nodeId)
@@ -254,7 +405,7 @@ public class PageRankImpl
       throw new IllegalArgumentException("Node biasing not enable");
     }
     int nodeIndex = this.nodeIndices.get(nodeId);
-    return this.nodeData.get(nodeIndex+3);
+    return this.nodeBiases.getFloat(nodeIndex);
   }
   
   public void setNodeBias(int nodeId, float bias)
@@ -265,7 +416,7 @@ public class PageRankImpl
     }
     
     int nodeIndex = this.nodeIndices.get(nodeId);
-    this.nodeData.set(nodeIndex+3, bias);
+    this.nodeBiases.set(nodeIndex, bias);
   }
   
   public void addNode(Integer sourceId, ArrayList<Map<String,Object>> sourceEdges) throws IOException
@@ -278,7 +429,7 @@ public class PageRankImpl
   {
     int source = sourceId.intValue();
    
-    maybeCreateNode(source);
+    int sourceIndex = maybeCreateNode(source);
     
     if (this.nodeBiasingEnabled)
     {
@@ -291,16 +442,21 @@ public class PageRankImpl
       throw new IllegalArgumentException("Bias was specified but node biasing not enabled");
     }
     
+    // edges are addressed by int offsets, both in memory and in the disk cache
+    if (sourceEdges.size() + this.edgeCount > Integer.MAX_VALUE)
+    {
+      throw new IllegalStateException(String.format("Cannot add %d edges to the %d edges already in the graph, at most %d edges are supported",
+                                                    sourceEdges.size(), this.edgeCount, Integer.MAX_VALUE));
+    }
+
     if (this.shouldCacheEdgesOnDisk && !usingEdgeDiskCache && (sourceEdges.size() + this.edgeCount) >= this.edgeCachingThreshold)
     {
       writeEdgesToDisk();
     }
     
-    // store the source node id itself
-    appendEdgeData(source);
-    
-    // store how many outgoing edges this node has
-    appendEdgeData(sourceEdges.size());
+    // start a new row for the source node, beginning at its first outgoing edge
+    this.edgeSources.add(sourceIndex);
+    this.edgeOffsets.add((int)this.edgeCount);
     
     // store the outgoing edges
     for (Map<String,Object> edge : sourceEdges)
@@ -308,26 +464,25 @@ public class PageRankImpl
       int dest = ((Integer)edge.get("dest")).intValue();
       float weight = ((Double)edge.get("weight")).floatValue();
             
-      maybeCreateNode(dest);
+      int destIndex = maybeCreateNode(dest);
       
-      appendEdgeData(dest);
-      
-      // location of weight in weights array
-      appendEdgeData(Math.max(1, (int)(weight * EDGE_WEIGHT_MULTIPLIER)));
+      appendEdge(destIndex, Math.max(1, (int)(weight * EDGE_WEIGHT_MULTIPLIER)));
       
       this.edgeCount++;
     }
   }
   
-  private void appendEdgeData(int data) throws IOException
+  private void appendEdge(int dest, int weight) throws IOException
   {
-    if (this.edgeDataOutputStream != null)
+    if (this.destsOutputStream != null)
     {
-      this.edgeDataOutputStream.writeInt(data);
+      this.destsOutputStream.writeInt(dest);
+      this.weightsOutputStream.writeInt(weight);
     }
     else
     {
-      this.edges.add(data);
+      this.edgeDests.add(dest);
+      this.edgeWeights.add(weight);
     }
   }
   
@@ -338,22 +493,34 @@ public class PageRankImpl
     
   public void init(ProgressIndicator progressIndicator) throws IOException
   {
-    if (this.edgeDataOutputStream != null)
+    closeEdgeFiles();
+    
+    // close off the last row
+    this.edgeOffsets.add((int)this.edgeCount);
+    
+    if (usingEdgeDiskCache)
+    {
+      this.dests = EdgeArray.map(this.destsFile, (int)this.edgeCount);
+      this.weights = EdgeArray.map(this.weightsFile, (int)this.edgeCount);
+    }
+    else
     {
-      this.edgeDataOutputStream.close();
-      this.edgeDataOutputStream = null;
+      this.dests = EdgeArray.wrap(this.edgeDests);
+      this.weights = EdgeArray.wrap(this.edgeWeights);
     }
     
+    finalizeNodes();
+    
     // initialize all nodes to an equal share of the total rank (1.0)
     float nodeRank = 1.0f / this.nodeCount;        
     float totalBias = 0.0f;
-    for (int j=0; j<this.nodeData.size(); j+=this.nodeFieldCount)
+    for (int i=0; i<this.ranks.length; i++)
     {
-      nodeData.set(j, nodeRank);      
+      this.ranks[i] = nodeRank;
       progressIndicator.progress();
       if (this.nodeBiasingEnabled) 
       {
-        totalBias += nodeData.getFloat(j+3);
+        totalBias += this.nodeBiases.getFloat(i);
       }
     }      
     
@@ -361,53 +528,113 @@ public class PageRankImpl
     // the share of bias.
     if (this.nodeBiasingEnabled)
     {
-      for (int j=0; j<this.nodeData.size(); j+=this.nodeFieldCount)
+      for (int i=0; i<this.nodeBiases.size(); i++)
       {
-        float bias = nodeData.getFloat(j+3);
+        float bias = this.nodeBiases.getFloat(i);
         bias /= totalBias;
-        nodeData.set(j+3,bias);
+        this.nodeBiases.set(i, bias);
       }
     }
     
-    Iterator<Integer> edgeData = getEdgeData();
-    
-    while(edgeData.hasNext())
+    for (int row=0; row<this.edgeSources.size(); row++)
     {
-      int sourceId = edgeData.next();
-      int nodeEdgeCount = edgeData.next();
+      int nodeIndex = this.edgeSources.getInt(row);
       
-      while (nodeEdgeCount-- > 0)
+      float totalWeight = this.totalWeights[nodeIndex];
+      
+      int end = this.edgeOffsets.getInt(row+1);
+      for (int edge=this.edgeOffsets.getInt(row); edge<end; edge++)
       {
-        // skip the destination node id
-        edgeData.next();
-        
-        float weight = edgeData.next();
-                
-        int nodeIndex = this.nodeIndices.get(sourceId);
-        
-        float totalWeight = this.nodeData.getFloat(nodeIndex+1); 
-        totalWeight += weight;
-        this.nodeData.set(nodeIndex+1, totalWeight);
+        totalWeight += this.weights.get(edge);
         
         progressIndicator.progress();
       }
+      
+      this.totalWeights[nodeIndex] = totalWeight;
     }
     
     // if handling dangling nodes, get a list of them by finding those nodes with no outgoing
     // edges (i.e. total outgoing edge weight is 0.0)
     if (shouldHandleDanglingNodes)
     {
-      for (Map.Entry<Integer,Integer> e : nodeIndices.entrySet())
+      for (int i=0; i<this.totalWeights.length; i++)
       {
-        int nodeId = e.getKey();
-        int nodeIndex = e.getValue();
-        float totalWeight = nodeData.getFloat(nodeIndex+1);
-        if (totalWeight == 0.0f)
+        if (this.totalWeights[i] == 0.0f)
         {
-          danglingNodes.add(nodeId);
+          danglingNodes.add(i);
         }
       }
     }
+    
+    if (this.threadCount > 1)
+    {
+      initChunks();
+    }
+  }
+  
+  /**
+   * Allocates the node data once all nodes have been added.  The edges already refer to nodes by their dense
+   * index, so from here on the iterations only need to index into these arrays.
+   */
+  private void finalizeNodes()
+  {
+    int nodes = (int)this.nodeCount;
+    this.ranks = new float[nodes];
+    this.totalWeights = new float[nodes];
+    this.contributions = new float[nodes];
+    
+    if (isDeltaUpdatesEnabled())
+    {
+      this.deltas = new float[nodes];
+      this.pushes = new float[nodes];
+    }
+  }
+  
+  /**
+   * Splits the rows into one chunk per thread, each having roughly the same number of edges.
+   */
+  private void initChunks()
+  {
+    if (this.executor != null)
+    {
+      this.executor.shutdownNow();
+    }
+    
+    this.chunkOffsets = new int[this.threadCount+1];
+    this.chunkContributions = new float[this.threadCount][];
+    this.chunkActiveEdgeCounts = new long[this.threadCount];
+    
+    for (int i=0; i<this.threadCount; i++)
+    {
+      this.chunkContributions[i] = new float[(int)this.nodeCount];
+    }
+    
+    int rowCount = this.edgeSources.size();
+    int chunk = 1;
+    for (int row=0; row<rowCount && chunk<this.threadCount; row++)
+    {
+      // start a new chunk once this one has reached its share of the edges
+      if (this.edgeOffsets.getInt(row) >= (this.edgeCount * chunk) / this.threadCount)
+      {
+        this.chunkOffsets[chunk++] = row;
+      }
+    }
+    
+    // any remaining chunks are empty
+    while (chunk <= this.threadCount)
+    {
+      this.chunkOffsets[chunk++] = rowCount;
+    }
+    
+    this.executor = Executors.newFixedThreadPool(this.threadCount, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        Thread thread = new Thread(r, "pagerank-distribute");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
   }
   
   public float nextIteration(ProgressIndicator progressIndicator) throws IOException
@@ -439,49 +666,199 @@ public class PageRankImpl
   
   public void distribute(ProgressIndicator progressIndicator) throws IOException
   {    
-    Iterator<Integer> edgeData = getEdgeData();
+    // the rank of each node, or when iterating on deltas the change in rank each node is pushing
+    float[] sourceRanks = getSourceRanks();
     
-    while(edgeData.hasNext())
+    if (this.executor != null)
     {
-      int sourceId = edgeData.next();
-      int nodeEdgeCount = edgeData.next();
-      
-      while (nodeEdgeCount-- > 0)
-      {
-        int toId = edgeData.next();
-        float weight = edgeData.next();
-                
-        int fromNodeIndex = this.nodeIndices.get(sourceId);
-        int toNodeIndex = this.nodeIndices.get(toId);
-        
-        float contributionChange = weight * this.nodeData.getFloat(fromNodeIndex) / this.nodeData.getFloat(fromNodeIndex+1);
-        
-        float currentContribution = this.nodeData.getFloat(toNodeIndex+2);
-        this.nodeData.set(toNodeIndex+2, currentContribution + contributionChange);
-        
-        progressIndicator.progress();
-      }      
+      this.activeEdgeCount = distributeChunks(sourceRanks, progressIndicator);
+    }
+    else
+    {
+      this.activeEdgeCount = distributeEdges(sourceRanks, progressIndicator);
     }
     
     if (shouldHandleDanglingNodes)
     {
       // get the rank from each of the dangling nodes
       float totalRank = 0.0f;
-      for (int nodeId : danglingNodes)
+      for (int i=0; i<danglingNodes.size(); i++)
       {
-        int nodeIndex = nodeIndices.get(nodeId);
-        float rank = nodeData.get(nodeIndex);
-        totalRank += rank;
+        totalRank += sourceRanks[danglingNodes.getInt(i)];
       }
       
       // distribute the dangling node ranks to all the nodes in the graph
       // note: the alpha factor is applied in the commit stage
       float contributionIncrease = totalRank / this.nodeCount;
-      for (int i=2; i<nodeData.size(); i += this.nodeFieldCount)
+      for (int i=0; i<this.contributions.length; i++)
+      {
+        this.contributions[i] += contributionIncrease;
+      }
+    }
+  }
+  
+  /**
+   * Gets the rank each node distributes along its outgoing edges in this iteration.  Normally this is the
+   * rank itself.  When iterating on deltas it is the accumulated change in rank, for those nodes where it
+   * exceeds the threshold, and zero for all other nodes.
+   */
+  private float[] getSourceRanks()
+  {
+    if (!this.deltaIterating)
+    {
+      this.activeNodeCount = this.nodeCount;
+      return this.ranks;
+    }
+    
+    long activeNodes = 0;
+    for (int i=0; i<this.deltas.length; i++)
+    {
+      float delta = this.deltas[i];
+      if (Math.abs(delta) > this.deltaThreshold)
+      {
+        this.pushes[i] = delta;
+        this.deltas[i] = 0.0f;
+        activeNodes++;
+      }
+      else
+      {
+        this.pushes[i] = 0.0f;
+      }
+    }
+    this.activeNodeCount = activeNodes;
+    
+    return this.pushes;
+  }
+  
+  private long distributeEdges(float[] sourceRanks, ProgressIndicator progressIndicator) throws IOException
+  {
+    long activeEdges = 0;
+    
+    for (int row=0; row<this.edgeSources.size(); row++)
+    {
+      int fromNodeIndex = this.edgeSources.getInt(row);
+      float rank = sourceRanks[fromNodeIndex];
+      
+      // nothing to distribute, which when iterating on deltas means the node has settled
+      if (rank == 0.0f)
+      {
+        continue;
+      }
+      
+      float totalWeight = this.totalWeights[fromNodeIndex];
+      
+      int start = this.edgeOffsets.getInt(row);
+      int end = this.edgeOffsets.getInt(row+1);
+      for (int edge=start; edge<end; edge++)
+      {
+        int toNodeIndex = this.dests.get(edge);
+        float weight = this.weights.get(edge);
+        
+        this.contributions[toNodeIndex] += weight * rank / totalWeight;
+        
+        progressIndicator.progress();
+      }
+      
+      activeEdges += end - start;
+    }
+    
+    return activeEdges;
+  }
+  
+  private long distributeChunks(final float[] sourceRanks, ProgressIndicator progressIndicator) throws IOException
+  {
+    List<Future<float[]>> futures = new ArrayList<Future<float[]>>(this.threadCount);
+    
+    for (int i=0; i<this.threadCount; i++)
+    {
+      final int chunk = i;
+      futures.add(this.executor.submit(new Callable<float[]>() {
+        @Override
+        public float[] call()
+        {
+          return distributeChunk(chunk, sourceRanks);
+        }
+      }));
+    }
+    
+    // merge the contributions in chunk order so the result does not depend on thread scheduling
+    for (Future<float[]> future : futures)
+    {
+      float[] chunkContributions = waitForChunk(future, progressIndicator);
+      for (int i=0; i<chunkContributions.length; i++)
+      {
+        this.contributions[i] += chunkContributions[i];
+      }
+    }
+    
+    long activeEdges = 0;
+    for (long chunkActiveEdges : this.chunkActiveEdgeCounts)
+    {
+      activeEdges += chunkActiveEdges;
+    }
+    
+    return activeEdges;
+  }
+  
+  private float[] distributeChunk(int chunk, float[] sourceRanks)
+  {
+    float[] contributions = this.chunkContributions[chunk];
+    Arrays.fill(contributions, 0.0f);
+    
+    long activeEdges = 0;
+    
+    int endRow = this.chunkOffsets[chunk+1];
+    
+    for (int row=this.chunkOffsets[chunk]; row<endRow; row++)
+    {
+      int fromNodeIndex = this.edgeSources.getInt(row);
+      float rank = sourceRanks[fromNodeIndex];
+      
+      if (rank == 0.0f)
+      {
+        continue;
+      }
+      
+      float totalWeight = this.totalWeights[fromNodeIndex];
+      
+      int start = this.edgeOffsets.getInt(row);
+      int end = this.edgeOffsets.getInt(row+1);
+      for (int edge=start; edge<end; edge++)
+      {
+        int toNodeIndex = this.dests.get(edge);
+        float weight = this.weights.get(edge);
+        
+        contributions[toNodeIndex] += weight * rank / totalWeight;
+      }
+      
+      activeEdges += end - start;
+    }
+    
+    this.chunkActiveEdgeCounts[chunk] = activeEdges;
+    
+    return contributions;
+  }
+  
+  private float[] waitForChunk(Future<float[]> future, ProgressIndicator progressIndicator) throws IOException
+  {
+    while (true)
+    {
+      try
+      {
+        return future.get(1, TimeUnit.SECONDS);
+      }
+      catch (TimeoutException e)
       {
-        float contribution = nodeData.getFloat(i);
-        contribution += contributionIncrease;
-        nodeData.set(i, contribution);
+        // report progress from this thread while the workers are busy
+        progressIndicator.progress();
+      }
+      catch (InterruptedException e)
+      {
+        throw new IOException("Interrupted while distributing rank", e);
+      }
+      catch (ExecutionException e)
+      {
+        throw new IOException("Failed to distribute rank", e.getCause());
       }
     }
   }
@@ -490,17 +867,23 @@ public class PageRankImpl
   {
     this.totalRankChange = 0.0f;
     
+    if (this.deltaIterating)
+    {
+      commitDeltas(progressIndicator);
+      return;
+    }
+    
     float oneMinusAlpha = (1.0f - this.alpha);
     float oneMinusAlphaOverNodeCount = oneMinusAlpha / nodeCount;
     
-    for (int nodeIndex=0; nodeIndex<this.nodeData.size(); nodeIndex += this.nodeFieldCount)
+    for (int nodeIndex=0; nodeIndex<this.ranks.length; nodeIndex++)
     {      
-      float oldRank = this.nodeData.get(nodeIndex+2);
+      float oldRank = this.contributions[nodeIndex];
       float newRank;
       
       if (this.nodeBiasingEnabled)
       {
-        float bias = this.nodeData.get(nodeIndex+3);
+        float bias = this.nodeBiases.getFloat(nodeIndex);
         newRank = bias * oneMinusAlpha + alpha * oldRank;
       }
       else
@@ -508,64 +891,140 @@ public class PageRankImpl
         newRank = oneMinusAlphaOverNodeCount + alpha * oldRank;
       }
       
-      this.nodeData.set(nodeIndex+2, 0.0f);
+      this.contributions[nodeIndex] = 0.0f;
       
-      float lastRankDiff = newRank - this.nodeData.get(nodeIndex);
+      float lastRankDiff = newRank - this.ranks[nodeIndex];
       
-      this.nodeData.set(nodeIndex, newRank);
+      this.ranks[nodeIndex] = newRank;
       
       this.totalRankChange += Math.abs(lastRankDiff);
       
+      if (this.deltas != null)
+      {
+        this.deltas[nodeIndex] = lastRankDiff;
+      }
+      
+      progressIndicator.progress();
+    }
+    
+    // after the first full iteration the remaining ones only need to push the changes in rank
+    this.deltaIterating = this.deltas != null;
+  }
+  
+  private void commitDeltas(ProgressIndicator progressIndicator)
+  {
+    // the random jump term is the same in every iteration, so only the change distributed along edges remains
+    for (int nodeIndex=0; nodeIndex<this.ranks.length; nodeIndex++)
+    {
+      float rankDiff = this.alpha * this.contributions[nodeIndex];
+      
+      this.contributions[nodeIndex] = 0.0f;
+      
+      this.ranks[nodeIndex] += rankDiff;
+      this.deltas[nodeIndex] += rankDiff;
+      
+      this.totalRankChange += Math.abs(rankDiff);
+      
       progressIndicator.progress();
     }
   }
   
   private void writeEdgesToDisk() throws IOException
   { 
-    this.edgesFile = File.createTempFile("fastgraph", null);
+    this.destsFile = File.createTempFile("fastgraph-dests", null);
+    this.weightsFile = File.createTempFile("fastgraph-weights", null);
+    this.destsFile.deleteOnExit();
+    this.weightsFile.deleteOnExit();
     
-    FileOutputStream outStream = new FileOutputStream(this.edgesFile);
-    BufferedOutputStream bufferedStream = new BufferedOutputStream(outStream);
-    this.edgeDataOutputStream = new DataOutputStream(bufferedStream);
+    this.destsOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.destsFile)));
+    this.weightsOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.weightsFile)));
     
-    for (int edgeData : edges)
+    for (int i=0; i<edgeDests.size(); i++)
     {
-      this.edgeDataOutputStream.writeInt(edgeData);
+      this.destsOutputStream.writeInt(edgeDests.getInt(i));
+      this.weightsOutputStream.writeInt(edgeWeights.getInt(i));
     }
     
-    this.edges.clear();
+    this.edgeDests.clear();
+    this.edgeWeights.clear();
     usingEdgeDiskCache = true;
   }
   
-  private Iterator<Integer> getEdgeData() throws IOException
+  private void closeEdgeFiles() throws IOException
   {
-    if (!usingEdgeDiskCache)
+    if (this.destsOutputStream != null)
     {
-      return this.edges.iterator();
+      this.destsOutputStream.close();
+      this.destsOutputStream = null;
     }
-    else
+    
+    if (this.weightsOutputStream != null)
     {
-      FileInputStream fileInputStream = new FileInputStream(this.edgesFile);
-      BufferedInputStream inputStream = new BufferedInputStream(fileInputStream);
-      final DataInputStream dataInputStream = new DataInputStream(inputStream);
-      
-      return new AbstractIterator<Integer>() {
-        
-        @Override
-        protected Integer computeNext()
+      this.weightsOutputStream.close();
+      this.weightsOutputStream = null;
+    }
+  }
+  
+  /**
+   * A read only array of ints, either held in memory or memory mapped from the disk cache so iterations
+   * run at page cache speed.  The array is split into segments since a single mapping cannot exceed 2GB.
+   * Reads do not modify any buffer state, so the array can be shared between threads.
+   */
+  private static final class EdgeArray
+  {
+    private static final int SEGMENT_SHIFT = 28;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    
+    private final IntBuffer[] segments;
+    
+    private EdgeArray(IntBuffer[] segments)
+    {
+      this.segments = segments;
+    }
+    
+    public static EdgeArray wrap(IntArrayList list)
+    {
+      int size = list.size();
+      IntBuffer[] segments = new IntBuffer[segmentCount(size)];
+      for (int i=0; i<segments.length; i++)
+      {
+        int offset = i << SEGMENT_SHIFT;
+        segments[i] = IntBuffer.wrap(list.elements(), offset, Math.min(SEGMENT_SIZE, size - offset)).slice();
+      }
+      return new EdgeArray(segments);
+    }
+    
+    public static EdgeArray map(File file, int size) throws IOException
+    {
+      IntBuffer[] segments = new IntBuffer[segmentCount(size)];
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      try
+      {
+        FileChannel channel = randomAccessFile.getChannel();
+        for (int i=0; i<segments.length; i++)
         {
-          try
-          {
-            return dataInputStream.readInt();
-          }
-          catch (IOException e)
-          {
-            return endOfData();
-          }
+          int offset = i << SEGMENT_SHIFT;
+          int length = Math.min(SEGMENT_SIZE, size - offset);
+          segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, 4L*offset, 4L*length).asIntBuffer();
         }
-        
-      };
+      }
+      finally
+      {
+        // the mappings remain valid after the file is closed
+        randomAccessFile.close();
+      }
+      return new EdgeArray(segments);
+    }
+    
+    private static int segmentCount(int size)
+    {
+      return (int)(((long)size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    }
+    
+    public int get(int index)
+    {
+      return segments[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
     }
   }
 }
-
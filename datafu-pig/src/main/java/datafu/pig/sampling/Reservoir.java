@@ -19,30 +19,208 @@
 
 package datafu.pig.sampling;
 
-import java.util.PriorityQueue;
+import java.util.Arrays;
+import java.util.Iterator;
 
-class Reservoir extends PriorityQueue<ScoredTuple>
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * Keeps the tuples with the highest scores seen so far, up to a fixed number of samples.
+ * 
+ * <p>
+ * The reservoir is a binary min-heap stored in parallel arrays of primitive scores and tuples,
+ * so a candidate can be compared against the lowest score in the reservoir, and rejected, 
+ * without allocating anything.
+ * </p>
+ * 
+ * <p>
+ * Once the reservoir is full, {@link #considerAll} skips ahead using exponential jumps (algorithm A-ExpJ
+ * of Efraimidis and Spirakis, which for equal weights is Algorithm L), so that scores are only drawn for
+ * the samples that actually enter the reservoir.
+ * </p>
+ */
+class Reservoir
 {
-  private static final long serialVersionUID = 1L;
-  private int numSamples;
+  private static final int INITIAL_CAPACITY = 16;
+  
+  private final int numSamples;
+  private double[] scores;
+  private Tuple[] tuples;
+  private int size;
   
   public Reservoir(int numSamples)
   {
-    super(numSamples);
     this.numSamples = numSamples;
+    // the arrays grow as needed, since many reservoirs may never fill up
+    int capacity = Math.min(numSamples, INITIAL_CAPACITY);
+    this.scores = new double[capacity];
+    this.tuples = new Tuple[capacity];
+  }
+  
+  public int size()
+  {
+    return size;
+  }
+  
+  public boolean isFull()
+  {
+    return size == numSamples;
+  }
+  
+  /**
+   * @return the lowest score in the reservoir, which a candidate must exceed once the reservoir is full
+   */
+  public double getMinScore()
+  {
+    return scores[0];
+  }
+  
+  public double getScore(int i)
+  {
+    return scores[i];
+  }
+  
+  public Tuple getTuple(int i)
+  {
+    return tuples[i];
+  }
+  
+  public void clear()
+  {
+    for (int i=0; i<size; i++)
+    {
+      tuples[i] = null;
+    }
+    size = 0;
+  }
+  
+  public boolean consider(double score, Tuple tuple)
+  {
+    if (size < numSamples) {
+      if (size == scores.length) {
+        int capacity = (int)Math.min((long)numSamples, 2L*size);
+        scores = Arrays.copyOf(scores, capacity);
+        tuples = Arrays.copyOf(tuples, capacity);
+      }
+      siftUp(size++, score, tuple);
+      return true;
+    } else if (numSamples > 0 && score > scores[0]) {
+      siftDown(0, score, tuple);
+      return true;
+    }
+    return false;
+  }
+  
+  /**
+   * Considers each of the samples, scoring them with the score generator.
+   * 
+   * <p>
+   * This keeps the same samples with the same distribution of scores as scoring each sample and calling
+   * {@link #consider(double, Tuple)}, so the resulting reservoirs can be merged as usual.  However once the 
+   * reservoir is full only O(k*log(n/k)) random numbers are drawn for n samples, rather than n.
+   * </p>
+   */
+  public void considerAll(Iterable<Tuple> samples, ScoredTuple.ScoreGenerator scoreGen) throws ExecException
+  {
+    Iterator<Tuple> iter = samples.iterator();
+    while (size < numSamples && iter.hasNext()) {
+      Tuple sample = iter.next();
+      consider(scoreGen.generateScore(sample), sample);
+    }
+    
+    if (numSamples == 0) {
+      return;
+    }
+    
+    // The total weight to skip before the next sample that enters the reservoir.  
+    // For samples with weight 1 this is a geometric number of samples.
+    double skipWeight = nextSkipWeight();
+    while (iter.hasNext()) {
+      Tuple sample = iter.next();
+      double weight = scoreGen.getWeight(sample);
+      skipWeight -= weight;
+      if (skipWeight <= 0.0) {
+        // the score of this sample is distributed as u^(1/weight) conditioned on exceeding the minimum
+        double minWeighted = Math.pow(scores[0], weight);
+        double u = minWeighted + (1.0 - minWeighted) * Math.random();
+        consider(weight == 1.0 ? u : Math.pow(u, 1.0/weight), sample);
+        skipWeight = nextSkipWeight();
+      }
+    }
+  }
+  
+  private double nextSkipWeight()
+  {
+    // 1 - random() is in (0,1], so the log is finite
+    return Math.log(1.0 - Math.random()) / Math.log(scores[0]);
+  }
+  
+  /**
+   * Considers a tuple in the intermediate form produced by {@link #getIntermediateTuple}.
+   */
+  public boolean considerIntermediateTuple(Tuple intermediateTuple)
+  {
+    double score;
+    Tuple tuple;
+    try {
+      score = (Double)intermediateTuple.get(0);
+      tuple = (Tuple)intermediateTuple.get(1);
+    } catch (Exception e) {
+      throw new RuntimeException("Cannot deserialize intermediate tuple: "+intermediateTuple.toString(), e);
+    }
+    return consider(score, tuple);
+  }
+  
+  /**
+   * @return the i-th sample and its score, in the same form as {@link ScoredTuple#getIntermediateTuple}
+   */
+  public Tuple getIntermediateTuple(int i, TupleFactory tupleFactory)
+  {
+    Tuple intermediateTuple = tupleFactory.newTuple(2);
+    try {
+      intermediateTuple.set(0, scores[i]);
+      intermediateTuple.set(1, tuples[i]);
+    }
+    catch (ExecException e) {
+      throw new RuntimeException(e);
+    }
+    return intermediateTuple;
   }
   
-  public boolean consider(ScoredTuple scoredTuple)
+  private void siftUp(int i, double score, Tuple tuple)
   {
-    if (super.size() < numSamples) {
-      return super.add(scoredTuple);
-    } else {      
-      ScoredTuple head = super.peek();
-      if (scoredTuple.score > head.score) {
-        super.poll();
-        return super.add(scoredTuple);
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (scores[parent] <= score) {
+        break;
+      }
+      scores[i] = scores[parent];
+      tuples[i] = tuples[parent];
+      i = parent;
+    }
+    scores[i] = score;
+    tuples[i] = tuple;
+  }
+  
+  private void siftDown(int i, double score, Tuple tuple)
+  {
+    int half = size >>> 1;
+    while (i < half) {
+      int child = 2*i + 1;
+      int right = child + 1;
+      if (right < size && scores[right] < scores[child]) {
+        child = right;
+      }
+      if (score <= scores[child]) {
+        break;
       }
-      return false;
+      scores[i] = scores[child];
+      tuples[i] = tuples[child];
+      i = child;
     }
+    scores[i] = score;
+    tuples[i] = tuple;
   }
 }
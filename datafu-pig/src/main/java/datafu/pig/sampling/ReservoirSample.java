@@ -47,7 +47,9 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * 
  * <p>
  * This algebraic implementation is backed by a heap and maintains the original roll in order
- * to compensate for skew.
+ * to compensate for skew.  Once the heap is full it skips ahead over the input with exponential 
+ * jumps, so that rolls are only made for the tuples that enter the heap.  Sampling k tuples
+ * from n therefore takes O(k*log(n/k)) random numbers rather than n.
  * </p>
  * 
  * @author wvaughan
@@ -89,23 +91,22 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
   {
     DataBag samples = (DataBag) input.get(0);
     ScoredTuple.ScoreGenerator scoreGen = getScoreGenerator();
-    for (Tuple sample : samples) {
-      getReservoir().consider(new ScoredTuple(scoreGen.generateScore(sample), sample));
-    }  
+    getReservoir().considerAll(samples, scoreGen);
   }
 
   @Override
   public void cleanup()
   {
-    this.reservoir.clear();
+    getReservoir().clear();
   }
 
   @Override
   public DataBag getValue()
   {
     DataBag output = BagFactory.getInstance().newDefaultBag();  
-    for (ScoredTuple sample : getReservoir()) {
-      output.add(sample.getTuple());
+    Reservoir reservoir = getReservoir();
+    for (int i=0; i<reservoir.size(); i++) {
+      output.add(reservoir.getTuple(i));
     }
     return output;
   }
@@ -217,15 +218,14 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
           output.add(new ScoredTuple(scoreGen.generateScore(sample), sample).getIntermediateTuple(tupleFactory));
         }
       } else {     
-        getReservoir().clear();
+        Reservoir reservoir = getReservoir();
+        reservoir.clear();
         
-        for (Tuple sample : samples) {
-          getReservoir().consider(new ScoredTuple(scoreGen.generateScore(sample), sample));
-        }    
+        reservoir.considerAll(samples, scoreGen);
         
-        for (ScoredTuple scoredTuple : getReservoir()) {
+        for (int i=0; i<reservoir.size(); i++) {
           // add the score on to the intermediate tuple
-          output.add(scoredTuple.getIntermediateTuple(tupleFactory));
+          output.add(reservoir.getIntermediateTuple(i, tupleFactory));
         }
       }
 
@@ -257,7 +257,8 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
 
     @Override
     public Tuple exec(Tuple input) throws IOException {
-      getReservoir().clear();
+      Reservoir reservoir = getReservoir();
+      reservoir.clear();
       
       DataBag bagOfSamples = (DataBag) input.get(0);
       for (Tuple innerTuple : bagOfSamples) {
@@ -265,14 +266,14 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
         
         for (Tuple sample : samples) {
           // use the same score as previously generated
-          getReservoir().consider(ScoredTuple.fromIntermediateTuple(sample));
+          reservoir.considerIntermediateTuple(sample);
         }
       }
       
       DataBag output = BagFactory.getInstance().newDefaultBag();
-      for (ScoredTuple scoredTuple : getReservoir()) {
+      for (int i=0; i<reservoir.size(); i++) {
         // add the score on to the intermediate tuple
-        output.add(scoredTuple.getIntermediateTuple(tupleFactory));
+        output.add(reservoir.getIntermediateTuple(i, tupleFactory));
       }
 
       return tupleFactory.newTuple(output);
@@ -303,7 +304,8 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
     
     @Override
     public DataBag exec(Tuple input) throws IOException {
-      getReservoir().clear();
+      Reservoir reservoir = getReservoir();
+      reservoir.clear();
       
       DataBag bagOfSamples = (DataBag) input.get(0);
       for (Tuple innerTuple : bagOfSamples) {
@@ -311,14 +313,14 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
         
         for (Tuple sample : samples) {
           // use the same score as previously generated
-          getReservoir().consider(ScoredTuple.fromIntermediateTuple(sample));
+          reservoir.considerIntermediateTuple(sample);
         }
       }
       
       DataBag output = BagFactory.getInstance().newDefaultBag();  
-      for (ScoredTuple scoredTuple : getReservoir()) {
+      for (int i=0; i<reservoir.size(); i++) {
         // output the original tuple
-        output.add(scoredTuple.getTuple());
+        output.add(reservoir.getTuple(i));
       }
 
       return output;
@@ -20,8 +20,10 @@
 package datafu.pig.sampling;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import org.apache.pig.FilterFunc;
 import org.apache.pig.data.Tuple;
 
@@ -47,10 +49,18 @@ import org.apache.pig.data.Tuple;
  * </p>
  * 
  * <p>
+ * By default the key is hashed with SHA-1.  A third parameter of 'fast' instead mixes the key with 
+ * a 64-bit hash finalizer, which is much cheaper.  The fast hashing is just as deterministic for a given 
+ * seed, but it selects a different sample than SHA-1 does, so use 'sha1' (or leave out the parameter) 
+ * to reproduce samples taken by earlier jobs.
+ * </p>
+ * 
+ * <p>
  * Example:
  * <pre>
  * {@code
  * DEFINE SampleByKey datafu.pig.sampling.SampleByKey('0.5');
+ * DEFINE FastSampleByKey datafu.pig.sampling.SampleByKey('0.5', 'salt', 'fast');
  * 
  *-- input: (A,1), (A,2), (A,3), (B,1), (B,3)
  * 
@@ -70,8 +80,17 @@ public class SampleByKey extends FilterFunc
 {
   final static int PRIME_NUMBER = 31;
   
+  final static String SHA1_HASHING = "sha1";
+  final static String FAST_HASHING = "fast";
+  
   Integer seed = null;
   double probability;
+  boolean fast = false;
+  
+  // reused across calls to avoid allocating per row
+  private MessageDigest sha1;
+  private final byte[] hashInput = new byte[8];
+  private final byte[] digest = new byte[20];
   
   public SampleByKey(String probability) {
     this.probability = Double.parseDouble(probability);
@@ -81,6 +100,17 @@ public class SampleByKey extends FilterFunc
     this(probability);
     this.seed = salt.hashCode();
   }
+  
+  public SampleByKey(String probability, String salt, String hashing) {
+    this(probability, salt);
+    if (FAST_HASHING.equals(hashing)) {
+      this.fast = true;
+    }
+    else if (!SHA1_HASHING.equals(hashing)) {
+      throw new IllegalArgumentException("Unknown hashing: " + hashing + ", expected '" + SHA1_HASHING + 
+                                         "' or '" + FAST_HASHING + "'");
+    }
+  }
 
   @Override
   public void setUDFContextSignature(String signature)
@@ -99,32 +129,57 @@ public class SampleByKey extends FilterFunc
       hashCode = hashCode*PRIME_NUMBER + each.hashCode();
     }
       
+    if (fast) {
+      return mixToRandomDouble(hashCode) <= probability;
+    }
+    return intToRandomDouble(hashCode) <= probability;
+  }
+  
+  private double intToRandomDouble(int input) throws IOException
+  {
+    if (sha1 == null) {
+      try {
+        sha1 = MessageDigest.getInstance("sha-1");
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    
+    // big-endian seed followed by the input, as ByteBuffer would write them
+    putInt(hashInput, 0, seed);
+    putInt(hashInput, 4, input);
+    sha1.update(hashInput);
     try {
-      return intToRandomDouble(hashCode) <= probability;
+      sha1.digest(digest, 0, digest.length);
     }
-    catch (Exception e) {
-      e.printStackTrace();
-      throw new RuntimeException("Exception on intToRandomDouble");
+    catch (DigestException e) {
+      throw new IOException(e);
     }
+    
+    int first = ((digest[0] & 0xff) << 24) | ((digest[1] & 0xff) << 16) | ((digest[2] & 0xff) << 8) | (digest[3] & 0xff);
+    return (((double)first)/Integer.MAX_VALUE  + 1)/2;
   }
   
-  private Double intToRandomDouble(int input) throws Exception
+  private static void putInt(byte[] bytes, int offset, int value)
   {
-    MessageDigest hasher = MessageDigest.getInstance("sha-1");
-
-    ByteBuffer b = ByteBuffer.allocate(4+4);
-    ByteBuffer b2 = ByteBuffer.allocate(20);
-
-    b.putInt(seed);
-    b.putInt(input);
-    byte[] digest = hasher.digest(b.array());
-    b.clear();
-
-    b2.put(digest);
-    b2.rewind();
-    double result = (((double)b2.getInt())/Integer.MAX_VALUE  + 1)/2;
-    b2.clear();
-
-    return result;
+    bytes[offset] = (byte)(value >>> 24);
+    bytes[offset+1] = (byte)(value >>> 16);
+    bytes[offset+2] = (byte)(value >>> 8);
+    bytes[offset+3] = (byte)value;
+  }
+  
+  /**
+   * Maps the seed and input to a double in [0,1) using the 64-bit finalizer from MurmurHash3.
+   */
+  private double mixToRandomDouble(int input)
+  {
+    long h = ((long)seed << 32) | (input & 0xffffffffL);
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (h >>> 11) * 0x1.0p-53;
   }
 }
@@ -93,6 +93,13 @@ class ScoredTuple implements Comparable<ScoredTuple>
   static interface ScoreGenerator
   {      
       double generateScore(Tuple sample) throws ExecException;
+      
+      /**
+       * Returns the weight of the sample.  The score generated for a sample must be distributed
+       * as u^(1/weight) for u uniform in [0,1), which {@link Reservoir#considerAll} relies on
+       * to skip over samples without scoring them.
+       */
+      double getWeight(Tuple sample) throws ExecException;
   }
   
   static class PureRandomScoreGenerator implements ScoreGenerator
@@ -103,5 +110,10 @@ class ScoredTuple implements Comparable<ScoredTuple>
       {
           return Math.random();
       }
+      
+      public double getWeight(Tuple sample)
+      {
+          return 1.0;
+      }
   }
 }
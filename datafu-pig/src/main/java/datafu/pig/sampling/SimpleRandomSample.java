@@ -22,7 +22,8 @@ package datafu.pig.sampling;
 import java.io.IOException;
 import java.util.Comparator;
 
-import org.apache.commons.math.random.RandomDataImpl;
+import org.apache.commons.math.random.MersenneTwister;
+import org.apache.commons.math.random.RandomGenerator;
 import org.apache.pig.AlgebraicEvalFunc;
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.BagFactory;
@@ -157,13 +158,8 @@ public class SimpleRandomSample extends AlgebraicEvalFunc<DataBag>
 
   static public class Initial extends EvalFunc<Tuple>
   {
-    // Should avoid creating many random number generator instances.
-    private static RandomDataImpl _RNG = new RandomDataImpl();
-
-    synchronized private static double nextDouble()
-    {
-      return _RNG.nextUniform(0.0d, 1.0d);
-    }
+    // Each instance has its own generator, since a shared one would need a lock on every item.
+    private final RandomGenerator _rng = new MersenneTwister();
 
     public Initial()
     {
@@ -258,7 +254,7 @@ public class SimpleRandomSample extends AlgebraicEvalFunc<DataBag>
 
         for (Tuple t : items)
         {
-          double x = nextDouble();
+          double x = _rng.nextDouble();
           if (x < q1)
           {
             selected.add(t);
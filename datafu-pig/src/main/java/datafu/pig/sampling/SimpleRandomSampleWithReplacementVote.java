@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.math.MathException;
+import org.apache.commons.math.random.MersenneTwister;
 import org.apache.commons.math.random.RandomDataImpl;
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.BagFactory;
@@ -150,7 +151,23 @@ public class SimpleRandomSampleWithReplacementVote extends EvalFunc<DataBag>
   private static final TupleFactory tupleFactory = TupleFactory.getInstance();
   private static final BagFactory bagFactory = BagFactory.getInstance();
 
-  private RandomDataImpl _rdg = new RandomDataImpl();
+  private final RandomDataImpl _rdg = new RandomDataImpl(new MersenneTwister());
+
+  public SimpleRandomSampleWithReplacementVote()
+  {
+    // empty
+  }
+
+  /**
+   * Constructs this UDF with a seed for the random number generator, so that runs can be reproduced.
+   * Note that every instance of the UDF uses the same seed.
+   * 
+   * @param seed seed for the random number generator
+   */
+  public SimpleRandomSampleWithReplacementVote(String seed)
+  {
+    _rdg.reSeed(Long.parseLong(seed));
+  }
 
   /**
    * Samples k integers from [0, n) without replacement efficiently.
@@ -0,0 +1,458 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sampling;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.builtin.Nondeterministic;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Performs a stratified random sample, producing a uniformly random sample of a given size 
+ * from each stratum in a single pass.
+ * 
+ * <p>
+ * This is equivalent to grouping by the stratum and applying {@link ReservoirSample} to each group, 
+ * however it does not require shuffling the raw data by stratum.  A reservoir is kept for each stratum
+ * value in a hash map.  The UDF is algebraic, so when applied to a single group (e.g. GROUP ALL) the 
+ * map tasks sample their input first and at most k tuples per stratum from each map task are sent to the reducer.
+ * </p>
+ * 
+ * <p>
+ * Its constructor takes 2 or 3 arguments.
+ * <ul>
+ *     <li>The 1st argument specifies the sample size per stratum, a string of a positive integer.
+ *     <li>The 2nd argument specifies the index of the stratum field in the input tuple, a string of a non-negative integer.
+ *     <li>The optional 3rd argument caps the number of tuples held in the reservoirs, a string of a positive integer.
+ *     Once the cap is exceeded the partial reservoirs are written out to a bag, which Pig can spill to disk, and
+ *     sampling starts over.  The map and combine steps write them to their output, while the reduce step and the
+ *     accumulator write them to a bag sorted by stratum and score, from which the highest scoring tuples of 
+ *     each stratum are taken at the end.  The default is 100000.
+ * </ul>
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define StratifiedSample datafu.pig.sampling.StratifiedReservoirSample('100','1');
+ * 
+ * -- input: (member_id:int, country:chararray)
+ * input = LOAD 'input' AS (member_id:int, country:chararray);
+ * 
+ * -- sample 100 members from each country
+ * sampled = FOREACH (GROUP input ALL) GENERATE FLATTEN(StratifiedSample(input));
+ * }
+ * </pre>
+ * </p>
+ * 
+ * @see ReservoirSample
+ */
+@Nondeterministic
+public class StratifiedReservoirSample extends AccumulatorEvalFunc<DataBag> implements Algebraic
+{
+  private static final String DEFAULT_MAX_TUPLES = "100000";
+  
+  private final int numSamples;
+  private final int stratumIdx;
+  private final int maxTuples;
+  private final Strata strata;
+  private DataBag overflow;
+  
+  public StratifiedReservoirSample(String numSamples, String stratumIdx)
+  {
+    this(numSamples, stratumIdx, DEFAULT_MAX_TUPLES);
+  }
+  
+  public StratifiedReservoirSample(String numSamples, String stratumIdx, String maxTuples)
+  {
+    this.numSamples = Integer.parseInt(numSamples);
+    this.stratumIdx = Integer.parseInt(stratumIdx);
+    this.maxTuples = parseMaxTuples(maxTuples);
+    if (this.numSamples <= 0) {
+      throw new IllegalArgumentException("Invalid sample size: " + numSamples);
+    }
+    if (this.stratumIdx < 0) {
+      throw new IllegalArgumentException("Invalid negative index of stratum field: " + stratumIdx);
+    }
+    this.strata = new Strata(this.numSamples, this.stratumIdx, this.maxTuples);
+  }
+  
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    if (overflow == null) {
+      overflow = strata.newOverflowBag();
+    }
+    strata.considerAll((DataBag) input.get(0), overflow);
+  }
+
+  @Override
+  public void cleanup()
+  {
+    strata.clear();
+    overflow = null;
+  }
+
+  @Override
+  public DataBag getValue()
+  {
+    DataBag output = BagFactory.getInstance().newDefaultBag();
+    try {
+      strata.addTuples(output, overflow);
+    }
+    catch (ExecException e) {
+      throw new RuntimeException(e);
+    }
+    return output;
+  }
+  
+  @Override
+  public Schema outputSchema(Schema input) {
+    try {
+      Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+      if (inputFieldSchema.type != DataType.BAG) {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+      
+      Schema inputBagSchema = inputFieldSchema.schema;
+      if (inputBagSchema != null && inputBagSchema.getField(0).type == DataType.TUPLE) {
+        Schema tupleSchema = inputBagSchema.getField(0).schema;
+        List<Schema.FieldSchema> fields = tupleSchema == null ? null : tupleSchema.getFields();
+        if (fields != null && fields.size() <= this.stratumIdx) {
+          throw new RuntimeException(String.format("Stratum field index %d is outside the input tuple of size %d", 
+                                                   this.stratumIdx, fields.size()));
+        }
+      }
+      
+      return new Schema(new Schema.FieldSchema(getSchemaName(this.getClass().getName().toLowerCase(), input),
+                                               inputFieldSchema.schema, DataType.BAG));    
+    } catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  private String getParam()
+  {
+    return String.format("('%d','%d','%d')", numSamples, stratumIdx, maxTuples);
+  }
+
+  @Override
+  public String getInitial() {
+    return Initial.class.getName()+getParam();
+  }
+
+  @Override
+  public String getIntermed() {
+    return Intermediate.class.getName()+getParam();
+  }
+
+  @Override
+  public String getFinal() {
+    return Final.class.getName()+getParam();
+  }
+  
+  private static int parseMaxTuples(String maxTuples)
+  {
+    int max = Integer.parseInt(maxTuples);
+    if (max <= 0) {
+      throw new IllegalArgumentException("Invalid maximum number of tuples: " + maxTuples);
+    }
+    return max;
+  }
+  
+  /**
+   * A reservoir per stratum, keyed by the value of the stratum field.
+   * 
+   * <p>
+   * Once the reservoirs hold more than maxTuples tuples, they are written out in intermediate form to an 
+   * overflow bag and cleared.  An overflow bag from {@link #newOverflowBag()} keeps them sorted by stratum
+   * and then by descending score, so the final sample can be read from it in one pass.
+   * </p>
+   */
+  static class Strata
+  {
+    private final int numSamples;
+    private final int stratumIdx;
+    private final int maxTuples;
+    private final Map<Object,Reservoir> reservoirs = new HashMap<Object,Reservoir>();
+    private final ScoredTuple.ScoreGenerator scoreGen = new ScoredTuple.PureRandomScoreGenerator();
+    private long size;
+    
+    Strata(int numSamples, int stratumIdx, int maxTuples)
+    {
+      this.numSamples = numSamples;
+      this.stratumIdx = stratumIdx;
+      this.maxTuples = maxTuples;
+    }
+    
+    /**
+     * @return the number of tuples held across all the reservoirs
+     */
+    long size()
+    {
+      return size;
+    }
+    
+    void clear()
+    {
+      reservoirs.clear();
+      size = 0;
+    }
+    
+    /**
+     * @return an empty bag that keeps intermediate tuples sorted by stratum and then by descending score
+     */
+    DataBag newOverflowBag()
+    {
+      return BagFactory.getInstance().newSortedBag(new StratumScoreComparator(stratumIdx));
+    }
+    
+    Object getStratum(Tuple sample) throws ExecException
+    {
+      if (stratumIdx >= sample.size()) {
+        throw new ExecException(String.format("Stratum index %d is outside tuple bounds", stratumIdx));
+      }
+      return sample.get(stratumIdx);
+    }
+    
+    private Reservoir getReservoir(Tuple sample) throws ExecException
+    {
+      Object stratum = getStratum(sample);
+      Reservoir reservoir = reservoirs.get(stratum);
+      if (reservoir == null) {
+        reservoir = new Reservoir(numSamples);
+        reservoirs.put(stratum, reservoir);
+      }
+      return reservoir;
+    }
+    
+    private void consider(Reservoir reservoir, double score, Tuple sample, DataBag overflow)
+    {
+      boolean full = reservoir.isFull();
+      if (reservoir.consider(score, sample) && !full) {
+        size++;
+        if (size > maxTuples) {
+          // Too many tuples held, so write out the partial reservoirs and start over.  Merging them
+          // later produces the same sample, it just sees more candidates.
+          addIntermediateTuples(overflow, TupleFactory.getInstance());
+          clear();
+        }
+      }
+    }
+    
+    void considerAll(DataBag samples, DataBag overflow) throws ExecException
+    {
+      for (Tuple sample : samples) {
+        consider(getReservoir(sample), scoreGen.generateScore(sample), sample, overflow);
+      }
+    }
+    
+    void considerIntermediateTuples(DataBag intermediateSamples, DataBag overflow) throws ExecException
+    {
+      for (Tuple intermediateTuple : intermediateSamples) {
+        // use the same score as previously generated
+        Tuple sample = (Tuple) intermediateTuple.get(1);
+        consider(getReservoir(sample), (Double) intermediateTuple.get(0), sample, overflow);
+      }
+    }
+    
+    void addIntermediateTuples(DataBag output, TupleFactory tupleFactory)
+    {
+      for (Reservoir reservoir : reservoirs.values()) {
+        for (int i=0; i<reservoir.size(); i++) {
+          output.add(reservoir.getIntermediateTuple(i, tupleFactory));
+        }
+      }
+    }
+    
+    /**
+     * Adds the sample of each stratum to the output, merging the reservoirs with any tuples written 
+     * to the overflow bag, and clears the reservoirs.
+     * 
+     * @param output bag to add the sampled tuples to
+     * @param overflow bag from {@link #newOverflowBag()}, may be null
+     */
+    void addTuples(DataBag output, DataBag overflow) throws ExecException
+    {
+      if (overflow == null || overflow.size() == 0) {
+        for (Reservoir reservoir : reservoirs.values()) {
+          for (int i=0; i<reservoir.size(); i++) {
+            output.add(reservoir.getTuple(i));
+          }
+        }
+        clear();
+        return;
+      }
+      
+      addIntermediateTuples(overflow, TupleFactory.getInstance());
+      clear();
+      
+      // the highest scoring tuples of each stratum come first
+      Object stratum = null;
+      int count = 0;
+      for (Tuple intermediateTuple : overflow) {
+        Tuple sample = (Tuple) intermediateTuple.get(1);
+        Object sampleStratum = getStratum(sample);
+        if (count == 0 || DataType.compare(stratum, sampleStratum) != 0) {
+          stratum = sampleStratum;
+          count = 0;
+        }
+        if (count < numSamples) {
+          output.add(sample);
+        }
+        count++;
+      }
+      overflow.clear();
+    }
+  }
+  
+  /**
+   * Orders intermediate tuples by stratum and then by descending score.
+   */
+  static class StratumScoreComparator implements Comparator<Tuple>
+  {
+    private final int stratumIdx;
+    
+    StratumScoreComparator(int stratumIdx)
+    {
+      this.stratumIdx = stratumIdx;
+    }
+    
+    @Override
+    public int compare(Tuple o1, Tuple o2)
+    {
+      try {
+        int c = DataType.compare(((Tuple) o1.get(1)).get(stratumIdx), ((Tuple) o2.get(1)).get(stratumIdx));
+        if (c != 0) {
+          return c;
+        }
+        return Double.compare((Double) o2.get(0), (Double) o1.get(0));
+      }
+      catch (ExecException e) {
+        throw new RuntimeException("Cannot compare " + o1 + " and " + o2 + ".", e);
+      }
+    }
+  }
+  
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    private final int numSamples;
+    private final Strata strata;
+    private final ScoredTuple.ScoreGenerator scoreGen = new ScoredTuple.PureRandomScoreGenerator();
+    private final TupleFactory tupleFactory = TupleFactory.getInstance();
+    
+    public Initial(String numSamples, String stratumIdx, String maxTuples)
+    {
+      this.numSamples = Integer.parseInt(numSamples);
+      this.strata = new Strata(this.numSamples, Integer.parseInt(stratumIdx), parseMaxTuples(maxTuples));
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException {
+      DataBag output = BagFactory.getInstance().newDefaultBag();
+      DataBag samples = (DataBag) input.get(0);
+      if (samples == null) {
+        // do nothing
+      }
+      else if (samples.size() <= numSamples) {
+        // every tuple fits in the reservoir of its stratum, so just emit intermediate tuples
+        for (Tuple sample : samples) {
+          // checks that the tuple has the stratum field
+          strata.getStratum(sample);
+          output.add(new ScoredTuple(scoreGen.generateScore(sample), sample).getIntermediateTuple(tupleFactory));
+        }
+      }
+      else {
+        strata.clear();
+        strata.considerAll(samples, output);
+        strata.addIntermediateTuples(output, tupleFactory);
+        strata.clear();
+      }
+      return tupleFactory.newTuple(output);
+    }
+  }
+  
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final Strata strata;
+    private final TupleFactory tupleFactory = TupleFactory.getInstance();
+    
+    public Intermediate(String numSamples, String stratumIdx, String maxTuples)
+    {
+      this.strata = new Strata(Integer.parseInt(numSamples), Integer.parseInt(stratumIdx), parseMaxTuples(maxTuples));
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException {
+      strata.clear();
+      
+      DataBag output = BagFactory.getInstance().newDefaultBag();
+      DataBag bagOfSamples = (DataBag) input.get(0);
+      for (Tuple innerTuple : bagOfSamples) {
+        strata.considerIntermediateTuples((DataBag) innerTuple.get(0), output);
+      }
+      
+      strata.addIntermediateTuples(output, tupleFactory);
+      strata.clear();
+      return tupleFactory.newTuple(output);
+    }
+  }
+  
+  static public class Final extends EvalFunc<DataBag>
+  {
+    private final Strata strata;
+    
+    public Final(String numSamples, String stratumIdx, String maxTuples)
+    {
+      this.strata = new Strata(Integer.parseInt(numSamples), Integer.parseInt(stratumIdx), parseMaxTuples(maxTuples));
+    }
+    
+    @Override
+    public DataBag exec(Tuple input) throws IOException {
+      strata.clear();
+      
+      DataBag overflow = strata.newOverflowBag();
+      DataBag bagOfSamples = (DataBag) input.get(0);
+      for (Tuple innerTuple : bagOfSamples) {
+        strata.considerIntermediateTuples((DataBag) innerTuple.get(0), overflow);
+      }
+      
+      DataBag output = BagFactory.getInstance().newDefaultBag();
+      strata.addTuples(output, overflow);
+      return output;
+    }    
+  }
+}
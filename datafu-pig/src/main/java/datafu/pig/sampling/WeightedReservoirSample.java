@@ -251,6 +251,13 @@ public class WeightedReservoirSample extends ReservoirSample {
         
         @Override
         public double generateScore(Tuple sample) throws ExecException
+        {
+            //a differnt approach to try: u^(1/w) could be exp(log(u)/w) ?
+            return Math.pow(Math.random(), 1/getWeight(sample));
+        }
+        
+        @Override
+        public double getWeight(Tuple sample) throws ExecException
         {
             if(this.weightIdx >= sample.size())
             {
@@ -266,8 +273,7 @@ public class WeightedReservoirSample extends ReservoirSample {
                 //non-positive weight should be avoided
                 throw new ExecException(String.format("Invalid sample weight [%f]. It should be a positive real number", weight));
             }
-            //a differnt approach to try: u^(1/w) could be exp(log(u)/w) ?
-            return Math.pow(Math.random(), 1/weight);
+            return weight;
         }
     }
 }
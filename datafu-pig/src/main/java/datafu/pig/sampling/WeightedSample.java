@@ -126,8 +126,10 @@ public class WeightedSample extends EvalFunc<DataBag>
      * complicates matters as the element positions have changed, so another mapping for
      * positions is needed.
      * 
-     * This is an O(k*n) algorithm, where k is the number of elements to sample and n is
-     * the number of scores.
+     * The cumulative distribution is kept in a tree of partial sums, so finding the interval
+     * and updating the scores after each selection are O(log n) rather than a scan of the scores. 
+     * This makes it an O(n + k*log(n)) algorithm, where k is the number of elements to sample 
+     * and n is the number of scores.
      */    
     Random rng = null;    
     if (seed == null) {
@@ -136,9 +138,11 @@ public class WeightedSample extends EvalFunc<DataBag>
       rng = new Random(seed);
     }
     
+    ScoreTree tree = new ScoreTree(scores);
+    
     for (int k = 0; k < limitSamples; k++) {
       double val = rng.nextDouble();
-      int idx = find_cumsum_interval(scores, val, k, numSamples);
+      int idx = tree.find(val);
       if (idx == numSamples)
         idx = rng.nextInt(numSamples - k) + k;
 
@@ -146,6 +150,8 @@ public class WeightedSample extends EvalFunc<DataBag>
 
       scores[idx] = scores[k];
       tuples[idx] = tuples[k];
+      tree.set(idx, scores[idx]);
+      tree.set(k, 0.0);
     }
 
     return output;
@@ -166,6 +172,63 @@ public class WeightedSample extends EvalFunc<DataBag>
     return end;
   }
 
+  /**
+   * A complete binary tree of partial sums over the scores.  Each internal node holds the sum of its
+   * two children, and the leaves hold the scores, padded with zeros to a power of two.  Sums are always
+   * recomputed from the children rather than adjusted, so removed scores leave no rounding residue behind.
+   */
+  private static class ScoreTree {
+    private final double[] sums;
+    private final int leaves;
+    private final int size;
+    
+    ScoreTree(double[] scores) {
+      this.size = scores.length;
+      int leaves = 1;
+      while (leaves < size) {
+        leaves <<= 1;
+      }
+      this.leaves = leaves;
+      this.sums = new double[2*leaves];
+      System.arraycopy(scores, 0, sums, leaves, size);
+      for (int i = leaves - 1; i > 0; i--) {
+        sums[i] = sums[2*i] + sums[2*i+1];
+      }
+    }
+    
+    void set(int i, double score) {
+      int node = leaves + i;
+      sums[node] = score;
+      for (node >>= 1; node > 0; node >>= 1) {
+        sums[node] = sums[2*node] + sums[2*node+1];
+      }
+    }
+    
+    /**
+     * Finds the first index whose cumulative score, as a fraction of the total, exceeds val.
+     * 
+     * @return the index, or the number of scores if rounding leaves val beyond the last score
+     */
+    int find(double val) {
+      double target = val * sums[1];
+      int node = 1;
+      while (node < leaves) {
+        double left = sums[2*node];
+        if (target < left) {
+          node = 2*node;
+        } else {
+          target -= left;
+          node = 2*node+1;
+        }
+      }
+      int idx = node - leaves;
+      if (idx >= size || sums[node] == 0.0) {
+        return size;
+      }
+      return idx;
+    }
+  }
+
   @Override
   public Schema outputSchema(Schema input) {
     try {
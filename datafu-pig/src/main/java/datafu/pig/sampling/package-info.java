@@ -18,6 +18,6 @@
  */
 
 /**
- * Sampling UDFs, including weighted sample, reservoir sampling, sampling by key, etc.
+ * Sampling UDFs, including weighted sample, reservoir sampling, stratified sampling, sampling by key, etc.
  */
 package datafu.pig.sampling;
\ No newline at end of file
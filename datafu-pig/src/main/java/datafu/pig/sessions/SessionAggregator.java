@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sessions;
+
+import java.io.IOException;
+
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Computes a value over the events of a session for {@link SessionSummary}.
+ * 
+ * <p>
+ * An aggregator sees the events of one session at a time, in order, and should hold only a fixed 
+ * amount of state.  Implementations need a public constructor taking either no arguments or 
+ * a single String, which is the text between the parentheses of the aggregator's specification.
+ * </p>
+ */
+public interface SessionAggregator
+{
+  /**
+   * Starts a new session, discarding any state from the previous one.
+   */
+  void reset();
+  
+  /**
+   * Adds an event of the current session.
+   * 
+   * @param event input tuple
+   * @throws IOException
+   */
+  void add(Tuple event) throws IOException;
+  
+  /**
+   * Gets the value for the current session.
+   * 
+   * @return value
+   */
+  Object getValue();
+  
+  /**
+   * Gets the schema of the value.
+   * 
+   * @param inputTupleSchema schema of the events
+   * @return schema of the value
+   */
+  Schema.FieldSchema outputSchema(Schema inputTupleSchema);
+}
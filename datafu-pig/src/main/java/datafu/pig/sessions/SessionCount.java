@@ -26,7 +26,6 @@ import org.apache.pig.AccumulatorEvalFunc;
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.Tuple;
-import org.joda.time.DateTime;
 import org.joda.time.Period;
 
 import datafu.pig.util.SimpleEvalFunc;
@@ -63,7 +62,9 @@ import datafu.pig.util.SimpleEvalFunc;
 public class SessionCount extends AccumulatorEvalFunc<Long>
 {
   private final long millis;
-  private DateTime last_date;
+  private final TimestampParser parser = new TimestampParser();
+  private boolean started;
+  private long last_millis;
   private long sum;
 
   public SessionCount(String timeSpec)
@@ -77,17 +78,17 @@ public class SessionCount extends AccumulatorEvalFunc<Long>
   public void accumulate(Tuple input) throws IOException
   {
     for (Tuple t : (DataBag) input.get(0)) {
-      DateTime date = new DateTime(t.get(0));
+      long date = parser.toMillis(t.get(0));
 
-      if (last_date == null) {
-        last_date = date;
+      if (!started) {
+        started = true;
         sum = 1;
-      } else if (date.isAfter(last_date.plus(this.millis)))
+      } else if (date > last_millis + this.millis)
         sum += 1;
-      else if (date.isBefore(last_date))
+      else if (date < last_millis)
         throw new IOException("input time series is not sorted");
 
-      last_date = date;
+      last_millis = date;
     }    
   }
 
@@ -100,7 +101,7 @@ public class SessionCount extends AccumulatorEvalFunc<Long>
   @Override
   public void cleanup()
   {
-    this.last_date = null;
+    this.started = false;
     this.sum = 0;
   }
 }
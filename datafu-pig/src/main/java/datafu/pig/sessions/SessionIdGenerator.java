@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sessions;
+
+import java.util.UUID;
+
+/**
+ * Generates session IDs as GUID strings.
+ * 
+ * <p>
+ * With the 'counter' scheme a random GUID is chosen once, and each ID counts up from it.  
+ * This avoids generating a new random GUID, which uses SecureRandom, for every session.  
+ * With the 'uuid' scheme every ID is a new random GUID.
+ * </p>
+ */
+class SessionIdGenerator
+{
+  private final boolean randomIds;
+  private final long idHigh;
+  private final long idLow;
+  private long idCount;
+  
+  public SessionIdGenerator(String idScheme)
+  {
+    if (idScheme.equalsIgnoreCase("uuid"))
+    {
+      this.randomIds = true;
+    }
+    else if (idScheme.equalsIgnoreCase("counter"))
+    {
+      this.randomIds = false;
+    }
+    else
+    {
+      throw new IllegalArgumentException("Session id scheme must be 'counter' or 'uuid', but got " + idScheme);
+    }
+
+    UUID base = UUID.randomUUID();
+    this.idHigh = base.getMostSignificantBits();
+    this.idLow = base.getLeastSignificantBits();
+  }
+  
+  public String next()
+  {
+    if (randomIds)
+    {
+      return UUID.randomUUID().toString();
+    }
+    return new UUID(idHigh, idLow + idCount++).toString();
+  }
+}
@@ -0,0 +1,507 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sessions;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.builtin.Nondeterministic;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+
+/**
+ * Sessionizes an input stream, producing one summary tuple per session.
+ *
+ * <p>
+ * Like {@link Sessionize}, this UDF takes the session timeout as its first constructor argument
+ * and assumes the first element of the input tuples is an ISO8601 timestamp or a long holding
+ * milliseconds since the epoch.  The input bag must be sorted by this timestamp.  Rather than
+ * annotating every input tuple with a session ID, it returns a bag with one tuple per session:
+ * </p>
+ *
+ * <ul>
+ *   <li>session_id: a GUID identifying the session</li>
+ *   <li>session_start: time of the first event, in milliseconds since the epoch</li>
+ *   <li>session_end: time of the last event, in milliseconds since the epoch</li>
+ *   <li>duration: session_end - session_start, in milliseconds</li>
+ *   <li>event_count: number of events in the session</li>
+ * </ul>
+ *
+ * <p>
+ * The remaining constructor arguments add aggregators, each contributing one more field.  An aggregator is
+ * given as name(field), where field is the position of an input field.  The built-in aggregators are
+ * sum (as a double), min, max, first and last, where min and max ignore nulls.  Any other name is taken
+ * as the class name of a {@link SessionAggregator}, with the text between the parentheses, if any, passed
+ * to its constructor.
+ * </p>
+ *
+ * <p>
+ * Only the state of the current session is held in memory, so the annotated bag produced by
+ * {@link Sessionize} and the grouping by session ID that usually follows are both avoided.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * %declare TIME_WINDOW  30m
+ *
+ * define SessionSummary datafu.pig.sessions.SessionSummary('$TIME_WINDOW', 'sum(2)', 'first(3)');
+ *
+ * views = LOAD 'views.tsv' AS (visit_date:chararray, member_id:int, time_spent:int, url:chararray);
+ *
+ * -- summarize the sessions of each member
+ * views = GROUP views BY member_id;
+ * sessions = FOREACH views {
+ *   visits = ORDER views BY visit_date;
+ *   GENERATE group AS member_id, FLATTEN(SessionSummary(visits));
+ * }
+ *
+ * -- output:
+ * -- (member_id,session_id,session_start,session_end,duration,event_count,sum_time_spent,first_url)
+ * }
+ * </pre>
+ * </p>
+ */
+@Nondeterministic
+public class SessionSummary extends AccumulatorEvalFunc<DataBag>
+{
+  private static final Pattern AGGREGATOR_SPEC = Pattern.compile("\\s*([\\w.$]+)\\s*(?:\\((.*)\\))?\\s*");
+
+  private final long millis;
+  private final SessionAggregator[] aggregators;
+  private final SessionIdGenerator ids = new SessionIdGenerator("counter");
+  private final TimestampParser parser = new TimestampParser();
+
+  private DataBag outputBag;
+  private boolean started;
+  private long start_millis;
+  private long last_millis;
+  private long count;
+
+  public SessionSummary(String... parameters)
+  {
+    if (parameters.length == 0)
+    {
+      throw new IllegalArgumentException("Expected the session timeout as the first parameter");
+    }
+
+    Period p = new Period("PT" + parameters[0].toUpperCase());
+    this.millis = p.toStandardSeconds().getSeconds() * 1000;
+
+    this.aggregators = new SessionAggregator[parameters.length - 1];
+    for (int i=0; i<aggregators.length; i++)
+    {
+      this.aggregators[i] = createAggregator(parameters[i + 1]);
+    }
+
+    cleanup();
+  }
+
+  private static SessionAggregator createAggregator(String spec)
+  {
+    Matcher m = AGGREGATOR_SPEC.matcher(spec);
+    if (!m.matches())
+    {
+      throw new IllegalArgumentException("Invalid aggregator: " + spec);
+    }
+    String name = m.group(1);
+    String arg = m.group(2) == null ? null : m.group(2).trim();
+
+    if (name.equals("sum")) return new Sum(fieldIndex(spec, arg));
+    if (name.equals("min")) return new Extreme("min", fieldIndex(spec, arg), -1);
+    if (name.equals("max")) return new Extreme("max", fieldIndex(spec, arg), 1);
+    if (name.equals("first")) return new First(fieldIndex(spec, arg));
+    if (name.equals("last")) return new Last(fieldIndex(spec, arg));
+
+    try
+    {
+      Class<?> c = Class.forName(name);
+      if (!SessionAggregator.class.isAssignableFrom(c))
+      {
+        throw new IllegalArgumentException(name + " is not a " + SessionAggregator.class.getName());
+      }
+      if (arg == null)
+      {
+        return (SessionAggregator)c.newInstance();
+      }
+      return (SessionAggregator)c.getConstructor(String.class).newInstance(arg);
+    }
+    catch (IllegalArgumentException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      throw new IllegalArgumentException("Could not create aggregator: " + spec, e);
+    }
+  }
+
+  private static int fieldIndex(String spec, String arg)
+  {
+    try
+    {
+      return Integer.parseInt(arg);
+    }
+    catch (NumberFormatException e)
+    {
+      throw new IllegalArgumentException("Expected a field position in aggregator: " + spec);
+    }
+  }
+
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    for (Tuple t : (DataBag) input.get(0)) {
+      Object timeObj = t.get(0);
+
+      if (!(timeObj instanceof String) && !(timeObj instanceof Long))
+      {
+        throw new RuntimeException("Time must either be a String or Long");
+      }
+
+      long date = parser.toMillis(timeObj);
+
+      if (!this.started)
+      {
+        this.started = true;
+        startSession(date);
+      }
+      else if (date > this.last_millis + this.millis)
+      {
+        endSession();
+        startSession(date);
+      }
+      else if (date < this.last_millis)
+      {
+        throw new IOException(String.format("input time series is not sorted (%s < %s)",
+                                            new DateTime(date), new DateTime(this.last_millis)));
+      }
+
+      this.count++;
+      for (SessionAggregator aggregator : aggregators)
+      {
+        aggregator.add(t);
+      }
+
+      this.last_millis = date;
+    }
+  }
+
+  private void startSession(long date)
+  {
+    this.start_millis = date;
+    this.count = 0;
+    for (SessionAggregator aggregator : aggregators)
+    {
+      aggregator.reset();
+    }
+  }
+
+  private void endSession()
+  {
+    Tuple summary = TupleFactory.getInstance().newTuple(5 + aggregators.length);
+    try
+    {
+      summary.set(0, ids.next());
+      summary.set(1, start_millis);
+      summary.set(2, last_millis);
+      summary.set(3, last_millis - start_millis);
+      summary.set(4, count);
+      for (int i=0; i<aggregators.length; i++)
+      {
+        summary.set(5 + i, aggregators[i].getValue());
+      }
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    outputBag.add(summary);
+  }
+
+  @Override
+  public DataBag getValue()
+  {
+    if (started)
+    {
+      // the open session ends with the input
+      endSession();
+      started = false;
+    }
+    return outputBag;
+  }
+
+  @Override
+  public void cleanup()
+  {
+    this.started = false;
+    this.outputBag = BagFactory.getInstance().newDefaultBag();
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+      if (inputFieldSchema.type != DataType.BAG)
+      {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+
+      Schema inputBagSchema = inputFieldSchema.schema;
+
+      if (inputBagSchema.getField(0).type != DataType.TUPLE)
+      {
+        throw new RuntimeException(String.format("Expected input bag to contain a TUPLE, but instead found %s",
+                                                 DataType.findTypeName(inputBagSchema.getField(0).type)));
+      }
+
+      Schema inputTupleSchema = inputBagSchema.getField(0).schema;
+
+      if (inputTupleSchema.getField(0).type != DataType.CHARARRAY
+          && inputTupleSchema.getField(0).type != DataType.LONG)
+      {
+        throw new RuntimeException(String.format("Expected first element of tuple to be a CHARARRAY or LONG, but instead found %s",
+                                                 DataType.findTypeName(inputTupleSchema.getField(0).type)));
+      }
+
+      Schema outputTupleSchema = new Schema();
+      outputTupleSchema.add(new Schema.FieldSchema("session_id", DataType.CHARARRAY));
+      outputTupleSchema.add(new Schema.FieldSchema("session_start", DataType.LONG));
+      outputTupleSchema.add(new Schema.FieldSchema("session_end", DataType.LONG));
+      outputTupleSchema.add(new Schema.FieldSchema("duration", DataType.LONG));
+      outputTupleSchema.add(new Schema.FieldSchema("event_count", DataType.LONG));
+      for (SessionAggregator aggregator : aggregators)
+      {
+        outputTupleSchema.add(aggregator.outputSchema(inputTupleSchema));
+      }
+
+      return new Schema(new Schema.FieldSchema(getSchemaName(this.getClass()
+                                                             .getName()
+                                                             .toLowerCase(), input),
+                                           outputTupleSchema,
+                                           DataType.BAG));
+    }
+    catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Base for the built-in aggregators, which read a single input field.
+   */
+  private static abstract class FieldAggregator implements SessionAggregator
+  {
+    private final String name;
+    protected final int field;
+
+    FieldAggregator(String name, int field)
+    {
+      this.name = name;
+      this.field = field;
+    }
+
+    protected Schema.FieldSchema inputFieldSchema(Schema inputTupleSchema)
+    {
+      if (field < 0 || field >= inputTupleSchema.size())
+      {
+        throw new RuntimeException(String.format("Field %d of %s aggregator is out of range", field, name));
+      }
+      try
+      {
+        return inputTupleSchema.getField(field);
+      }
+      catch (FrontendException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+
+    protected String fieldName(Schema inputTupleSchema)
+    {
+      String alias = inputFieldSchema(inputTupleSchema).alias;
+      return name + "_" + (alias != null ? alias : Integer.toString(field));
+    }
+
+    @Override
+    public Schema.FieldSchema outputSchema(Schema inputTupleSchema)
+    {
+      // same type as the input field
+      Schema.FieldSchema inputField = inputFieldSchema(inputTupleSchema);
+      try
+      {
+        return new Schema.FieldSchema(fieldName(inputTupleSchema), inputField.schema, inputField.type);
+      }
+      catch (FrontendException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private static class Sum extends FieldAggregator
+  {
+    private double sum;
+    private boolean any;
+
+    Sum(int field)
+    {
+      super("sum", field);
+    }
+
+    @Override
+    public void reset()
+    {
+      sum = 0.0;
+      any = false;
+    }
+
+    @Override
+    public void add(Tuple event) throws IOException
+    {
+      Number value = (Number)event.get(field);
+      if (value != null)
+      {
+        sum += value.doubleValue();
+        any = true;
+      }
+    }
+
+    @Override
+    public Object getValue()
+    {
+      return any ? sum : null;
+    }
+
+    @Override
+    public Schema.FieldSchema outputSchema(Schema inputTupleSchema)
+    {
+      return new Schema.FieldSchema(fieldName(inputTupleSchema), DataType.DOUBLE);
+    }
+  }
+
+  private static class Extreme extends FieldAggregator
+  {
+    private final int sign;
+    private Object value;
+
+    Extreme(String name, int field, int sign)
+    {
+      super(name, field);
+      this.sign = sign;
+    }
+
+    @Override
+    public void reset()
+    {
+      value = null;
+    }
+
+    @Override
+    public void add(Tuple event) throws IOException
+    {
+      Object v = event.get(field);
+      if (v != null && (value == null || sign * DataType.compare(v, value) > 0))
+      {
+        value = v;
+      }
+    }
+
+    @Override
+    public Object getValue()
+    {
+      return value;
+    }
+  }
+
+  private static class First extends FieldAggregator
+  {
+    private Object value;
+    private boolean any;
+
+    First(int field)
+    {
+      super("first", field);
+    }
+
+    @Override
+    public void reset()
+    {
+      value = null;
+      any = false;
+    }
+
+    @Override
+    public void add(Tuple event) throws IOException
+    {
+      if (!any)
+      {
+        value = event.get(field);
+        any = true;
+      }
+    }
+
+    @Override
+    public Object getValue()
+    {
+      return value;
+    }
+  }
+
+  private static class Last extends FieldAggregator
+  {
+    private Object value;
+
+    Last(int field)
+    {
+      super("last", field);
+    }
+
+    @Override
+    public void reset()
+    {
+      value = null;
+    }
+
+    @Override
+    public void add(Tuple event) throws IOException
+    {
+      value = event.get(field);
+    }
+
+    @Override
+    public Object getValue()
+    {
+      return value;
+    }
+  }
+}
@@ -20,7 +20,6 @@
 package datafu.pig.sessions;
 
 import java.io.IOException;
-import java.util.UUID;
 
 import org.apache.pig.Accumulator;
 import org.apache.pig.AccumulatorEvalFunc;
@@ -48,6 +47,13 @@ import org.joda.time.Period;
  * </p>
  *
  * <p>
+ * An optional second constructor argument chooses how session IDs are generated.  With 'counter', 
+ * the default, each instance picks a random GUID and counts up from it, which is much cheaper 
+ * than generating a new random GUID for every session.  With 'uuid', each session gets a random GUID. 
+ * Timestamps given as longs are used as milliseconds without creating any date objects.
+ * </p>
+ *
+ * <p>
  * Example:
  * <pre>
  * {@code
@@ -76,15 +82,24 @@ import org.joda.time.Period;
 public class Sessionize extends AccumulatorEvalFunc<DataBag>
 {
   private final long millis;
+  private final SessionIdGenerator ids;
+  private final TimestampParser parser = new TimestampParser();
 
   private DataBag outputBag;
-  private DateTime last_date;
+  private long last_millis;
+  private boolean started;
   private String id;
 
   public Sessionize(String timeSpec)
+  {
+    this(timeSpec, "counter");
+  }
+
+  public Sessionize(String timeSpec, String idScheme)
   {
     Period p = new Period("PT" + timeSpec.toUpperCase());
     this.millis = p.toStandardSeconds().getSeconds() * 1000;
+    this.ids = new SessionIdGenerator(idScheme);
 
     cleanup();
   }
@@ -95,32 +110,30 @@ public class Sessionize extends AccumulatorEvalFunc<DataBag>
     for (Tuple t : (DataBag) input.get(0)) {
       Object timeObj = t.get(0);
       
-      DateTime date;
-      if (timeObj instanceof String)
-      {
-        date = new DateTime((String)timeObj);
-      }
-      else if (timeObj instanceof Long)
-      {
-        date = new DateTime((Long)timeObj);
-      }
-      else
+      if (!(timeObj instanceof String) && !(timeObj instanceof Long))
       {
         throw new RuntimeException("Time must either be a String or Long");
       }
       
-      if (this.last_date == null)
-        this.last_date = date;
-      else if (date.isAfter(this.last_date.plus(this.millis)))
-        this.id = UUID.randomUUID().toString();
-      else if (date.isBefore(last_date))
-        throw new IOException(String.format("input time series is not sorted (%s < %s)", date, last_date));
+      long date = parser.toMillis(timeObj);
+      
+      if (!this.started)
+        this.started = true;
+      else if (date > this.last_millis + this.millis)
+        this.id = ids.next();
+      else if (date < this.last_millis)
+        throw new IOException(String.format("input time series is not sorted (%s < %s)", 
+                                            new DateTime(date), new DateTime(this.last_millis)));
 
-      Tuple t_new = TupleFactory.getInstance().newTuple(t.getAll());
-      t_new.append(this.id);
+      int size = t.size();
+      Tuple t_new = TupleFactory.getInstance().newTuple(size + 1);
+      for (int i=0; i<size; i++) {
+        t_new.set(i, t.get(i));
+      }
+      t_new.set(size, this.id);
       outputBag.add(t_new);
       
-      this.last_date = date;
+      this.last_millis = date;
     }
   }
 
@@ -133,9 +146,9 @@ public class Sessionize extends AccumulatorEvalFunc<DataBag>
   @Override
   public void cleanup()
   {
-    this.last_date = null;
+    this.started = false;
     this.outputBag = BagFactory.getInstance().newDefaultBag();
-    this.id = UUID.randomUUID().toString();
+    this.id = ids.next();
   }
 
   @Override
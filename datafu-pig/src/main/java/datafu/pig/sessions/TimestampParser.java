@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sessions;
+
+import org.joda.time.DateTime;
+
+/**
+ * Converts timestamps to milliseconds since the epoch.
+ *
+ * <p>
+ * Longs are taken as milliseconds already.  ISO8601 strings are parsed with Joda, but since sorted
+ * input mostly repeats the same date, hour and minute, the parser remembers the start of the last
+ * minute it parsed.  A string of the form yyyy-MM-ddTHH:mm:ss[.SSS][zone] that matches the last
+ * string up to the minute, and has the same zone, only needs its seconds parsed.
+ * </p>
+ */
+class TimestampParser
+{
+  private static final int MINUTE_END = 16;
+  private static final int SECONDS_END = 19;
+
+  private String lastString;
+  private int lastZoneStart;
+  private long lastMinuteMillis;
+
+  /**
+   * Converts a timestamp to milliseconds since the epoch.
+   *
+   * @param timeObj a Long holding milliseconds, an ISO8601 String, or anything else Joda can convert
+   * @return milliseconds since the epoch
+   */
+  public long toMillis(Object timeObj)
+  {
+    if (timeObj instanceof Long)
+    {
+      return (Long)timeObj;
+    }
+    else if (timeObj instanceof String)
+    {
+      return parse((String)timeObj);
+    }
+    else
+    {
+      return new DateTime(timeObj).getMillis();
+    }
+  }
+
+  private long parse(String s)
+  {
+    int zoneStart = zoneStart(s);
+    if (zoneStart < 0)
+    {
+      return new DateTime(s).getMillis();
+    }
+
+    long millisOfMinute = (digit(s, 17) * 10 + digit(s, 18)) * 1000L + fractionMillis(s, zoneStart);
+
+    if (lastString != null
+        && s.regionMatches(0, lastString, 0, MINUTE_END)
+        && s.length() - zoneStart == lastString.length() - lastZoneStart
+        && s.regionMatches(zoneStart, lastString, lastZoneStart, s.length() - zoneStart))
+    {
+      return lastMinuteMillis + millisOfMinute;
+    }
+
+    long millis = new DateTime(s).getMillis();
+    lastString = s;
+    lastZoneStart = zoneStart;
+    lastMinuteMillis = millis - millisOfMinute;
+    return millis;
+  }
+
+  /**
+   * Checks that the string has the form yyyy-MM-ddTHH:mm:ss[.S+] and finds where the zone starts.
+   *
+   * @return the index where the zone starts, which is the length of the string if there is no zone,
+   *         or -1 if the string does not have this form
+   */
+  private static int zoneStart(String s)
+  {
+    if (s.length() < SECONDS_END) return -1;
+    for (int i=0; i<SECONDS_END; i++)
+    {
+      char c = s.charAt(i);
+      switch (i)
+      {
+        case 4: case 7: if (c != '-') return -1; break;
+        case 10: if (c != 'T') return -1; break;
+        case 13: case 16: if (c != ':') return -1; break;
+        default: if (c < '0' || c > '9') return -1;
+      }
+    }
+    if (digit(s, 17) > 5) return -1;
+
+    int i = SECONDS_END;
+    if (i < s.length() && s.charAt(i) == '.')
+    {
+      i++;
+      int start = i;
+      while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') i++;
+      if (i == start) return -1;
+    }
+    return i;
+  }
+
+  private static long fractionMillis(String s, int zoneStart)
+  {
+    long millis = 0;
+    int digits = 0;
+    for (int i=SECONDS_END+1; i<zoneStart && digits<3; i++, digits++)
+    {
+      millis = millis * 10 + digit(s, i);
+    }
+    for (; digits<3; digits++)
+    {
+      millis *= 10;
+    }
+    return millis;
+  }
+
+  private static int digit(String s, int i)
+  {
+    return s.charAt(i) - '0';
+  }
+}
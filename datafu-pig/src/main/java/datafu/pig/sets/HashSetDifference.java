@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import java.io.IOException;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+import datafu.pig.util.HashPartitioner;
+
+/**
+ * Computes the set difference of two or more bags using a hash set.  Duplicates are eliminated.
+ * 
+ * <p>
+ * If bags A and B are provided, then this computes A-B, i.e. all elements in A that are not in B.
+ * If bags A, B and C are provided, then this computes A-B-C, i.e. all elements in A that are not in B or C.
+ * </p>
+ * 
+ * <p>
+ * Unlike {@link SetDifference} the input bags do not need to be sorted.  A hash set is built over the first bag
+ * and the other bags are probed against it.  If the first bag has more tuples than the maximum to hold in memory, 
+ * all the bags are first split by hash into partitions that are small enough, and the difference of each partition 
+ * is computed separately.  The maximum defaults to 1,000,000 tuples and can be set with the constructor.  The order 
+ * of the output is unspecified.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define HashSetDifference datafu.pig.sets.HashSetDifference();
+ *
+ * -- input:
+ * -- ({(6),(5),(4),(3),(2),(1)},{(4),(3)})
+ * input = LOAD 'input' AS (B1:bag{T:tuple(val:int)},B2:bag{T:tuple(val:int)});
+ *
+ * -- output:
+ * -- ({(6),(5),(2),(1)})
+ * output = FOREACH input GENERATE HashSetDifference(B1,B2);
+ * }</pre>
+ * 
+ * @see SetDifference
+ */
+public class HashSetDifference extends SetOperationsBase
+{
+  private static final BagFactory bagFactory = BagFactory.getInstance();
+  private static final String DEFAULT_MAX_TUPLES_IN_MEMORY = "1000000";
+  
+  private final int maxTuplesInMemory;
+  
+  public HashSetDifference()
+  {
+    this(DEFAULT_MAX_TUPLES_IN_MEMORY);
+  }
+  
+  public HashSetDifference(String maxTuplesInMemory)
+  {
+    this.maxTuplesInMemory = Integer.parseInt(maxTuplesInMemory);
+    if (this.maxTuplesInMemory <= 0)
+    {
+      throw new IllegalArgumentException("Maximum tuples in memory must be positive, but found " + maxTuplesInMemory);
+    }
+  }
+
+  @Override
+  public DataBag exec(Tuple input) throws IOException
+  {
+    if (input.size() < 2)
+    {
+      throw new RuntimeException("Expected at least two inputs, but found " + input.size());
+    }
+    
+    for (Object o : input)
+    {
+      if (o != null && !(o instanceof DataBag))
+      {
+        throw new RuntimeException("Inputs must be bags");
+      }
+    }
+    
+    DataBag outputBag = bagFactory.newDefaultBag();
+    
+    DataBag[] bags = new DataBag[input.size()];
+    for (int i=0; i < input.size(); i++)
+    {
+      bags[i] = input.get(i) == null ? bagFactory.newDefaultBag() : (DataBag)input.get(i);
+    }
+    
+    long buildSize = bags[0].size();
+    if (buildSize == 0)
+    {
+      return outputBag;
+    }
+    else if (buildSize <= maxTuplesInMemory)
+    {
+      difference(bags, outputBag);
+    }
+    else
+    {
+      int numPartitions = HashPartitioner.numPartitions(buildSize, maxTuplesInMemory);
+      for (DataBag[] partition : HashPartitioner.partition(bags, numPartitions, HashPartitioner.WHOLE_TUPLE))
+      {
+        difference(partition, outputBag);
+        progress();
+      }
+    }
+    
+    return outputBag;
+  }
+  
+  private static void difference(DataBag[] bags, DataBag outputBag)
+  {
+    TupleHashSet set = new TupleHashSet(bags[0].size());
+    for (Tuple t : bags[0])
+    {
+      set.add(t);
+    }
+    
+    // mark the tuples found in any of the other bags
+    for (int i=1; i<bags.length; i++)
+    {
+      for (Tuple t : bags[i])
+      {
+        int slot = set.find(t);
+        if (slot >= 0)
+        {
+          set.setMark(slot, 1);
+        }
+      }
+    }
+    
+    for (int slot=0; slot<set.capacity(); slot++)
+    {
+      if (set.get(slot) != null && set.getMark(slot) == 0)
+      {
+        outputBag.add(set.get(slot));
+      }
+    }
+  }
+}
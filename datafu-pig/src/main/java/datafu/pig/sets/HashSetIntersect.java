@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import java.io.IOException;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+import datafu.pig.util.HashPartitioner;
+
+/**
+ * Computes the set intersection of two or more bags using a hash set.  Duplicates are eliminated.
+ * 
+ * <p>
+ * Unlike {@link SetIntersect} the input bags do not need to be sorted.  A hash set is built over the smallest bag
+ * and the other bags are probed against it.  If the smallest bag has more tuples than the maximum to hold in memory, 
+ * all the bags are first split by hash into partitions that are small enough, and each partition is intersected
+ * separately.  The maximum defaults to 1,000,000 tuples and can be set with the constructor.  The order of the output
+ * is unspecified.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define HashSetIntersect datafu.pig.sets.HashSetIntersect();
+ *
+ * -- input:
+ * -- ({(4,40),(3,30),(1,10),(2,20)},{(8,80),(2,20),(4,40)})
+ * input = LOAD 'input' AS (B1:bag{T:tuple(val1:int,val2:int)},B2:bag{T:tuple(val1:int,val2:int)});
+ *
+ * -- output:
+ * -- ({(2,20),(4,40)})
+ * output = FOREACH input GENERATE HashSetIntersect(B1,B2);
+ * }</pre>
+ * 
+ * @see SetIntersect
+ */
+public class HashSetIntersect extends SetOperationsBase
+{
+  private static final BagFactory bagFactory = BagFactory.getInstance();
+  private static final String DEFAULT_MAX_TUPLES_IN_MEMORY = "1000000";
+  
+  private final int maxTuplesInMemory;
+  
+  public HashSetIntersect()
+  {
+    this(DEFAULT_MAX_TUPLES_IN_MEMORY);
+  }
+  
+  public HashSetIntersect(String maxTuplesInMemory)
+  {
+    this.maxTuplesInMemory = Integer.parseInt(maxTuplesInMemory);
+    if (this.maxTuplesInMemory <= 0)
+    {
+      throw new IllegalArgumentException("Maximum tuples in memory must be positive, but found " + maxTuplesInMemory);
+    }
+  }
+
+  @Override
+  public DataBag exec(Tuple input) throws IOException
+  {
+    DataBag outputBag = bagFactory.newDefaultBag();
+    
+    DataBag[] bags = new DataBag[input.size()];
+    for (int i=0; i < input.size(); i++) {
+      Object o = input.get(i);
+      if (!(o instanceof DataBag))
+        throw new RuntimeException("parameters must be databags");
+      bags[i] = (DataBag) o;
+      if (bags[i].size() == 0)
+        return outputBag; // one or more input bags were empty
+    }
+    
+    long buildSize = bags[smallest(bags)].size();
+    if (buildSize <= maxTuplesInMemory)
+    {
+      intersect(bags, outputBag);
+    }
+    else
+    {
+      int numPartitions = HashPartitioner.numPartitions(buildSize, maxTuplesInMemory);
+      for (DataBag[] partition : HashPartitioner.partition(bags, numPartitions, HashPartitioner.WHOLE_TUPLE))
+      {
+        intersect(partition, outputBag);
+        progress();
+      }
+    }
+    
+    return outputBag;
+  }
+  
+  private static int smallest(DataBag[] bags)
+  {
+    int smallest = 0;
+    for (int i=1; i<bags.length; i++)
+    {
+      if (bags[i].size() < bags[smallest].size())
+      {
+        smallest = i;
+      }
+    }
+    return smallest;
+  }
+  
+  private static void intersect(DataBag[] bags, DataBag outputBag)
+  {
+    int build = smallest(bags);
+    TupleHashSet set = new TupleHashSet(bags[build].size());
+    for (Tuple t : bags[build])
+    {
+      set.add(t);
+    }
+    
+    // After probing the r-th other bag, a tuple's mark is r if it has been found in every bag so far.
+    int round = 0;
+    for (int i=0; i<bags.length; i++)
+    {
+      if (i == build)
+      {
+        continue;
+      }
+      round++;
+      for (Tuple t : bags[i])
+      {
+        int slot = set.find(t);
+        if (slot >= 0 && set.getMark(slot) == round - 1)
+        {
+          set.setMark(slot, round);
+        }
+      }
+    }
+    
+    for (int slot=0; slot<set.capacity(); slot++)
+    {
+      if (set.get(slot) != null && set.getMark(slot) == round)
+      {
+        outputBag.add(set.get(slot));
+      }
+    }
+  }
+}
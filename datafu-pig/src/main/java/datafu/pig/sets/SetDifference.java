@@ -20,8 +20,8 @@
 package datafu.pig.sets;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.PriorityQueue;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -60,63 +60,25 @@ public class SetDifference extends SetOperationsBase
   private static final BagFactory bagFactory = BagFactory.getInstance();
   
   /**
-   * Loads the data bags from the input tuple and puts them in a priority queue,
-   * where ordering is determined by the data from the iterator for each bag.
+   * Loads the non-empty data bags from the input tuple.  The first bag is always first.
    * 
-   * <p>
-   * The bags are wrapped in a {@link Pair} object that is comparable on the data
-   * currently available from the iterator.
-   * These objects are ordered first by the data, then by the index within the tuple
-   * the bag came from.
-   * </p>
-   *  
    * @param input
-   * @return priority queue ordered
+   * @return bags to merge
    * @throws IOException
    */
-  private PriorityQueue<Pair> loadBags(Tuple input) throws IOException
-  {    
-    PriorityQueue<Pair> pq = new PriorityQueue<Pair>(input.size());
+  private DataBag[] loadBags(Tuple input) throws IOException
+  {
+    List<DataBag> bags = new ArrayList<DataBag>(input.size());
 
     for (int i=0; i < input.size(); i++) 
     {
-      if (input.get(i) != null)
+      DataBag bag = (DataBag)input.get(i);
+      if (bag != null && bag.size() > 0)
       {
-        Iterator<Tuple> inputIterator = ((DataBag)input.get(i)).iterator();      
-        if(inputIterator.hasNext())
-        {
-          pq.add(new Pair(inputIterator,i));
-        }
+        bags.add(bag);
       }
     }
-    return pq;
-  }
-
-  /**
-   * Counts how many elements in the priority queue match the
-   * element at the front of the queue, which should be from the first bag. 
-   * 
-   * @param pq priority queue
-   * @return number of matches
-   */
-  public int countMatches(PriorityQueue<Pair> pq)
-  {
-    Pair nextPair = pq.peek();
-    Tuple data = nextPair.data;
-    
-    // sanity check
-    if (!nextPair.index.equals(0))
-    {
-      throw new RuntimeException("Expected next bag to have index 0");
-    }
-    
-    int matches = 0;
-    for (Pair p : pq) {
-      if (data.equals(p.data))
-        matches++;
-    }
-    // subtract 1 since element matches itself
-    return matches - 1;
+    return bags.toArray(new DataBag[bags.size()]);
   }
 
   @SuppressWarnings("unchecked")
@@ -151,112 +113,57 @@ public class SetDifference extends SetOperationsBase
       return bag1;
     }
     
-    PriorityQueue<Pair> pq = loadBags(input);
+    SortedBagMerger merger = new SortedBagMerger(loadBags(input));
     
-    Tuple lastData = null;
-
-    while (true) 
+    // Walk the merged stream in runs of equal tuples.  Since equal tuples come out in bag order,
+    // a run starting with data from the first bag is in the difference if no other bag is in the run.
+    Tuple runData = null;
+    boolean inFirstBag = false;
+    boolean inOtherBag = false;
+    boolean firstBagExhausted = false;
+    
+    int source;
+    while ((source = merger.winner()) >= 0) 
     {
-      Pair nextPair = pq.peek();
-      
-      // ignore data we've already encountered
-      if (nextPair.data.compareTo(lastData) != 0)
+      Tuple data = merger.head(source);
+      if (runData == null || runData.compareTo(data) != 0)
       {
-        // Only take data from the first bag, where there are no other
-        // bags that have the same data.
-        if (nextPair.index.equals(0) && countMatches(pq) == 0)
+        if (inFirstBag && !inOtherBag)
+        {
+          outputBag.add(runData);
+        }
+        // stop when we exhaust all elements from the first bag
+        if (firstBagExhausted)
         {
-          outputBag.add(nextPair.data);
-          lastData = nextPair.data;
+          runData = null;
+          break;
         }
+        runData = data;
+        inFirstBag = false;
+        inOtherBag = false;
       }
-
-      Pair p = pq.poll();      
       
-      // only put the bag back into the queue if it still has data
-      if (p.hasNext())
-      {
-        p.next();
-        pq.offer(p);
-      }
-      else if (p.index.equals(0))
+      if (source == 0)
       {
-        // stop when we exhaust all elements from the first bag
-        break;
+        inFirstBag = true;
       }
-    }
-
-    return outputBag;
-  }
-
-  /**
-   * A wrapper for the tuple iterator that implements comparable so it can be used in the priority queue.
-   * 
-   * <p>
-   * This is compared first on the data, then on the index the bag came from
-   * in the input tuple.
-   * </p>
-   * @author mhayes
-   *
-   */
-  private static class Pair implements Comparable<Pair>
-  {
-    private final Iterator<Tuple> it;
-    private final Integer index;
-    private Tuple data;
-
-    /**
-     * Constructs the {@link Pair}.
-     * 
-     * @param it tuple iterator
-     * @param index index within the tuple that the bag came from
-     */
-    public Pair(Iterator<Tuple> it, int index)
-    {
-      this.index = index;
-      this.it = it;
-      this.data = it.next();
-    }
-
-    @SuppressWarnings("unchecked")
-    @Override
-    public int compareTo(Pair o)
-    {
-      int r = this.data.compareTo(o.data);
-      if (r == 0)
+      else
       {
-        return index.compareTo(o.index);
+        inOtherBag = true;
       }
-      else
+      
+      merger.advance();
+      if (source == 0 && merger.isExhausted(0))
       {
-        return r;
+        firstBagExhausted = true;
       }
     }
     
-    public boolean hasNext()
-    {
-      return it.hasNext();
-    }
-    
-    @SuppressWarnings("unchecked")
-    public Tuple next()
+    if (runData != null && inFirstBag && !inOtherBag)
     {
-      Tuple nextData = it.next();
-      // algorithm assumes data is in order
-      if (data.compareTo(nextData) > 0)
-      {
-        throw new RuntimeException("Out of order!");
-      }
-      this.data = nextData;
-      return this.data;
+      outputBag.add(runData);
     }
 
-    @Override
-    public String toString()
-    {
-      return String.format("[%s within %d]",data,index);
-    }
+    return outputBag;
   }
 }
-
-
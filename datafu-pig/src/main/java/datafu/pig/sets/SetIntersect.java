@@ -20,13 +20,10 @@
 package datafu.pig.sets;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.PriorityQueue;
 
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.Tuple;
-import org.apache.pig.data.TupleFactory;
 
 /**
  * Computes the set intersection of two or more bags.  Duplicates are eliminated. <b>The input bags must be sorted.</b>
@@ -54,79 +51,62 @@ public class SetIntersect extends SetOperationsBase
 {
   private static final BagFactory bagFactory = BagFactory.getInstance();
 
-  static class pair implements Comparable<pair>
+  private DataBag[] load_bags(Tuple input) throws IOException
   {
-    final Iterator<Tuple> it;
-    Tuple data;
-
-    pair(Iterator<Tuple> it)
-    {
-      this.it = it;
-      this.data = it.next();
-    }
-
-    @Override
-    public int compareTo(pair o)
-    {
-      return this.data.compareTo(o.data);
-    }
-  }
-
-  private PriorityQueue<pair> load_bags(Tuple input) throws IOException
-  {
-    PriorityQueue<pair> pq = new PriorityQueue<pair>(input.size());
+    DataBag[] bags = new DataBag[input.size()];
 
     for (int i=0; i < input.size(); i++) {
       Object o = input.get(i);
       if (!(o instanceof DataBag))
         throw new RuntimeException("parameters must be databags");
-      Iterator<Tuple> inputIterator= ((DataBag) o).iterator();
-      if(inputIterator.hasNext())
-        pq.add(new pair(inputIterator));
+      bags[i] = (DataBag) o;
     }
-    return pq;
-  }
-
-  public boolean all_equal(PriorityQueue<pair> pq)
-  {
-    Object o = pq.peek().data;
-    for (pair p : pq) {
-      if (!o.equals(p.data))
-        return false;
-    }
-    return true;
+    return bags;
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public DataBag exec(Tuple input) throws IOException
   {
     DataBag outputBag = bagFactory.newDefaultBag();
-    PriorityQueue<pair> pq = load_bags(input);
-    if(pq.size() != input.size())
-      return outputBag; // one or more input bags were empty
-    Tuple last_data = null;
+    DataBag[] bags = load_bags(input);
+    for (DataBag bag : bags) {
+      if (bag.size() == 0)
+        return outputBag; // one or more input bags were empty
+    }
 
-    while (true) {
-      if (pq.peek().data.compareTo(last_data) != 0 && all_equal(pq)) {
-        last_data = pq.peek().data;
-        outputBag.add(last_data);
+    // Walk the merged stream in runs of equal tuples.  A tuple is in the intersection
+    // when every bag contributes to its run.
+    SortedBagMerger merger = new SortedBagMerger(bags);
+    int[] lastRunSeen = new int[bags.length];
+    int run = 0;
+    int bagsInRun = 0;
+    boolean exhausted = false;
+    Tuple runData = null;
+
+    int source;
+    while ((source = merger.winner()) >= 0) {
+      Tuple data = merger.head(source);
+      if (runData == null || runData.compareTo(data) != 0) {
+        // once any bag is exhausted no later run can include it
+        if (exhausted)
+          break;
+        run++;
+        bagsInRun = 0;
+        runData = data;
       }
 
-      pair p = pq.poll();
-      if (!p.it.hasNext())
-        break;
-      Tuple nextData = p.it.next();
-      // algorithm assumes data is in order
-      if (p.data.compareTo(nextData) > 0)
-      {
-        throw new RuntimeException("Out of order!");
+      if (lastRunSeen[source] != run) {
+        lastRunSeen[source] = run;
+        if (++bagsInRun == bags.length)
+          outputBag.add(runData);
       }
-      p.data = nextData;
-      pq.offer(p);
+
+      merger.advance();
+      if (merger.isExhausted(source))
+        exhausted = true;
     }
 
     return outputBag;
   }
 }
-
-
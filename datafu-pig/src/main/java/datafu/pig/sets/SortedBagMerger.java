@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import java.util.Iterator;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Merges sorted bags into a single sorted stream using a loser tree.
+ * 
+ * <p>
+ * Each step advances one bag and replays a single path of the tree, so it takes O(log k) comparisons
+ * for k bags.  Tuples that compare equal are produced in the order of the bags they came from.  
+ * The bags are read through their iterators, so they are never materialized in memory.  
+ * </p>
+ */
+class SortedBagMerger
+{
+  private final Iterator<Tuple>[] iterators;
+  private final Tuple[] heads;
+  private final int k;
+  // tree[0] holds the source with the smallest head, tree[1..k-1] the losers at each internal node
+  private final int[] tree;
+  
+  @SuppressWarnings("unchecked")
+  public SortedBagMerger(DataBag[] bags)
+  {
+    this.k = bags.length;
+    this.iterators = new Iterator[k];
+    this.heads = new Tuple[k];
+    for (int i=0; i<k; i++)
+    {
+      iterators[i] = bags[i].iterator();
+      heads[i] = iterators[i].hasNext() ? iterators[i].next() : null;
+    }
+    
+    this.tree = new int[Math.max(k,1)];
+    if (k > 0)
+    {
+      // leaves are the nodes k..2k-1, play the initial tournament bottom up
+      int[] winners = new int[2*k];
+      for (int i=0; i<k; i++)
+      {
+        winners[k+i] = i;
+      }
+      for (int node=k-1; node>0; node--)
+      {
+        int left = winners[2*node];
+        int right = winners[2*node+1];
+        if (less(left, right))
+        {
+          winners[node] = left;
+          tree[node] = right;
+        }
+        else
+        {
+          winners[node] = right;
+          tree[node] = left;
+        }
+      }
+      tree[0] = winners[1];
+    }
+  }
+  
+  /**
+   * @return the index of the bag holding the smallest tuple, or -1 when all the bags are exhausted
+   */
+  public int winner()
+  {
+    if (k == 0 || heads[tree[0]] == null)
+    {
+      return -1;
+    }
+    return tree[0];
+  }
+  
+  /**
+   * @return the current tuple from the given bag, or null if it is exhausted
+   */
+  public Tuple head(int source)
+  {
+    return heads[source];
+  }
+  
+  public boolean isExhausted(int source)
+  {
+    return heads[source] == null;
+  }
+  
+  /**
+   * Moves the winning bag on to its next tuple.
+   * 
+   * @throws RuntimeException if the bag is not sorted
+   */
+  @SuppressWarnings("unchecked")
+  public void advance()
+  {
+    int source = tree[0];
+    Iterator<Tuple> it = iterators[source];
+    if (it.hasNext())
+    {
+      Tuple next = it.next();
+      // algorithm assumes data is in order
+      if (heads[source].compareTo(next) > 0)
+      {
+        throw new RuntimeException("Out of order!");
+      }
+      heads[source] = next;
+    }
+    else
+    {
+      heads[source] = null;
+    }
+    
+    int winner = source;
+    for (int node=(source+k)>>>1; node>0; node>>>=1)
+    {
+      if (less(tree[node], winner))
+      {
+        int loser = winner;
+        winner = tree[node];
+        tree[node] = loser;
+      }
+    }
+    tree[0] = winner;
+  }
+  
+  /**
+   * Orders sources by their current tuple, then by index.  Exhausted sources come last.
+   */
+  @SuppressWarnings("unchecked")
+  private boolean less(int a, int b)
+  {
+    Tuple x = heads[a];
+    Tuple y = heads[b];
+    if (x == null)
+    {
+      return false;
+    }
+    if (y == null)
+    {
+      return true;
+    }
+    int r = x.compareTo(y);
+    return r < 0 || (r == 0 && a < b);
+  }
+}
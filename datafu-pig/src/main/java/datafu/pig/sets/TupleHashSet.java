@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import org.apache.pig.data.Tuple;
+
+import datafu.pig.util.HashPartitioner;
+
+/**
+ * An open addressing hash set of tuples with linear probing, used by the hash based set operations.
+ * 
+ * <p>
+ * Each entry has an int mark that the set operations use to record which bags the tuple was found in.
+ * Bags that are too large to build a set over in memory are first split into partitions by hash, see {@link HashPartitioner}.
+ * </p>
+ */
+class TupleHashSet
+{
+  private static final int MIN_CAPACITY = 16;
+  
+  private Tuple[] tuples;
+  private int[] hashes;
+  private int[] marks;
+  private int mask;
+  private int size;
+  
+  public TupleHashSet(long expectedSize)
+  {
+    int capacity = MIN_CAPACITY;
+    while (capacity < 2*expectedSize && capacity < (1 << 30))
+    {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+  
+  private void allocate(int capacity)
+  {
+    tuples = new Tuple[capacity];
+    hashes = new int[capacity];
+    marks = new int[capacity];
+    mask = capacity - 1;
+  }
+  
+  public int size()
+  {
+    return size;
+  }
+  
+  /**
+   * @return the number of slots, each of which may hold a tuple
+   */
+  public int capacity()
+  {
+    return tuples.length;
+  }
+  
+  /**
+   * @return the tuple in the slot, or null if it is empty
+   */
+  public Tuple get(int slot)
+  {
+    return tuples[slot];
+  }
+  
+  public int getMark(int slot)
+  {
+    return marks[slot];
+  }
+  
+  public void setMark(int slot, int mark)
+  {
+    marks[slot] = mark;
+  }
+  
+  /**
+   * Adds the tuple if it is not already present.
+   * 
+   * @return the slot holding the tuple
+   */
+  public int add(Tuple tuple)
+  {
+    if (2*(size+1) > tuples.length)
+    {
+      grow();
+    }
+    int hash = hash(tuple);
+    int slot = hash & mask;
+    while (tuples[slot] != null)
+    {
+      if (hashes[slot] == hash && tuples[slot].equals(tuple))
+      {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    tuples[slot] = tuple;
+    hashes[slot] = hash;
+    size++;
+    return slot;
+  }
+  
+  /**
+   * @return the slot holding the tuple, or -1 if it is not present
+   */
+  public int find(Tuple tuple)
+  {
+    int hash = hash(tuple);
+    int slot = hash & mask;
+    while (tuples[slot] != null)
+    {
+      if (hashes[slot] == hash && tuples[slot].equals(tuple))
+      {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+  
+  private void grow()
+  {
+    Tuple[] oldTuples = tuples;
+    int[] oldHashes = hashes;
+    int[] oldMarks = marks;
+    allocate(2*oldTuples.length);
+    for (int i=0; i<oldTuples.length; i++)
+    {
+      if (oldTuples[i] != null)
+      {
+        int slot = oldHashes[i] & mask;
+        while (tuples[slot] != null)
+        {
+          slot = (slot + 1) & mask;
+        }
+        tuples[slot] = oldTuples[i];
+        hashes[slot] = oldHashes[i];
+        marks[slot] = oldMarks[i];
+      }
+    }
+  }
+  
+  /**
+   * Spreads the tuple's hash code, so that slots depend on all of its bits.  This is the same hash
+   * {@link HashPartitioner} splits bags by, which picks partitions by the high bits.
+   */
+  static int hash(Tuple tuple)
+  {
+    return HashPartitioner.hash(tuple);
+  }
+}
@@ -18,6 +18,6 @@
  */
 
 /**
- * UDFs for set operations such as intersect and union.
+ * UDFs for set operations such as intersect and union, on sorted or unsorted bags.
  */
 package datafu.pig.sets;
\ No newline at end of file
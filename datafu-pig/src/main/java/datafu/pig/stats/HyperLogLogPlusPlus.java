@@ -22,12 +22,22 @@ package datafu.pig.stats;
 import java.io.IOException;
 
 import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.FrontendException;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 /**
  * A UDF that applies the HyperLogLog++ cardinality estimation algorithm.
  * 
@@ -39,16 +49,51 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * 
  * <p>
  * This is a streaming implementation, and therefore the input data does not need to be sorted.
+ * It is also algebraic: each map task builds a partial estimator for its share of the group, and only 
+ * the serialized estimators are sent to the reducers to be merged, rather than the input tuples.
+ * </p>
+ * 
+ * <p>
+ * By default each tuple is hashed by stream-lib, which renders the tuple as a string and hashes that.  
+ * Passing 'murmur3' as the second parameter instead hashes the field values directly with 64-bit MurmurHash3, 
+ * which avoids building a string per tuple and is considerably faster.  Estimators built with different hashing
+ * modes count the same value as different elements, so they should not be merged with each other.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define HyperLogLogPlusPlus datafu.pig.stats.HyperLogLogPlusPlus('20','murmur3');
+ * 
+ * -- input: (member_id:int, page:chararray)
+ * output = FOREACH (GROUP input BY page) GENERATE group as page, HyperLogLogPlusPlus(input.member_id) as uniques;
+ * }
+ * </pre>
  * </p>
  * 
  * @author mhayes
  *
  */
-public class HyperLogLogPlusPlus extends AccumulatorEvalFunc<Long>
+public class HyperLogLogPlusPlus extends AccumulatorEvalFunc<Long> implements Algebraic
 {
-  private com.clearspring.analytics.stream.cardinality.HyperLogLogPlus estimator;
+  private HyperLogLogPlus estimator;
   
   private final int p;
+  private final String hashing;
+  private final boolean murmur3;
+  
+  static final String TUPLE_HASHING = "tuple";
+  static final String MURMUR3_HASHING = "murmur3";
+  
+  private static final HashFunction MURMUR3 = Hashing.murmur3_128();
+  
+  /**
+   * Precision of the sparse representation estimators start in.  An estimator holding few values, such as 
+   * the partial built by {@link Initial} from a single row, serializes to a few bytes rather than the full
+   * register array, and switches to the register array once that becomes smaller.
+   */
+  static final int SPARSE_PRECISION = 25;
   
   /**
    * Constructs a HyperLogLog++ estimator.
@@ -64,8 +109,21 @@ public class HyperLogLogPlusPlus extends AccumulatorEvalFunc<Long>
    * @param p precision value
    */
   public HyperLogLogPlusPlus(String p)
+  {
+    this(p, TUPLE_HASHING);
+  }
+  
+  /**
+   * Constructs a HyperLogLog++ estimator.
+   * 
+   * @param p precision value
+   * @param hashing either 'tuple' to let stream-lib hash each tuple, or 'murmur3' to hash the field values with MurmurHash3
+   */
+  public HyperLogLogPlusPlus(String p, String hashing)
   {
     this.p = Integer.parseInt(p);
+    this.hashing = hashing;
+    this.murmur3 = isMurmur3Hashing(hashing);
     cleanup();
   }
   
@@ -73,16 +131,13 @@ public class HyperLogLogPlusPlus extends AccumulatorEvalFunc<Long>
   public void accumulate(Tuple arg0) throws IOException
   {
     DataBag inputBag = (DataBag)arg0.get(0);
-    for (Tuple t : inputBag) 
-    {
-      estimator.offer(t);
-    }
+    addValues(estimator, inputBag, murmur3);
   }
 
   @Override
   public void cleanup()
   {
-    this.estimator = new com.clearspring.analytics.stream.cardinality.HyperLogLogPlus(p);
+    this.estimator = newEstimator(p);
   }
 
   @Override
@@ -113,4 +168,231 @@ public class HyperLogLogPlusPlus extends AccumulatorEvalFunc<Long>
       throw new RuntimeException(e);
     }
   }
+  
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName() + "('" + p + "','" + hashing + "')";
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + "('" + p + "','" + hashing + "')";
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + "('" + p + "','" + hashing + "')";
+  }
+  
+  /**
+   * Creates an empty estimator, starting in the sparse representation.
+   * 
+   * @param p precision value
+   * @return estimator
+   */
+  static HyperLogLogPlus newEstimator(int p)
+  {
+    return new HyperLogLogPlus(p, Math.max(p, SPARSE_PRECISION));
+  }
+  
+  static boolean isMurmur3Hashing(String hashing)
+  {
+    if (MURMUR3_HASHING.equals(hashing))
+    {
+      return true;
+    }
+    else if (TUPLE_HASHING.equals(hashing))
+    {
+      return false;
+    }
+    throw new IllegalArgumentException("Unknown hashing: " + hashing + ", expected '" + TUPLE_HASHING + 
+                                       "' or '" + MURMUR3_HASHING + "'");
+  }
+  
+  static void addValues(HyperLogLogPlus estimator, DataBag bag, boolean murmur3) throws IOException
+  {
+    if (murmur3)
+    {
+      for (Tuple t : bag) 
+      {
+        estimator.offerHashed(hash(t));
+      }
+    }
+    else
+    {
+      for (Tuple t : bag) 
+      {
+        estimator.offer(t);
+      }
+    }
+  }
+  
+  /**
+   * Computes a 64-bit MurmurHash3 of the values of the tuple's fields.  Each field contributes its type
+   * followed by its value, so for example 1 and 1L and '1' hash differently.
+   * 
+   * @param t tuple to hash
+   * @return the hash
+   * @throws IOException
+   */
+  static long hash(Tuple t) throws IOException
+  {
+    Hasher hasher = MURMUR3.newHasher();
+    putTuple(hasher, t);
+    return hasher.hash().asLong();
+  }
+  
+  private static void putTuple(Hasher hasher, Tuple t) throws IOException
+  {
+    int size = t.size();
+    hasher.putInt(size);
+    for (int i=0; i<size; i++)
+    {
+      putField(hasher, t.get(i));
+    }
+  }
+  
+  private static void putField(Hasher hasher, Object o) throws IOException
+  {
+    byte type = DataType.findType(o);
+    hasher.putByte(type);
+    switch (type)
+    {
+      case DataType.NULL:
+        break;
+      case DataType.BOOLEAN:
+        hasher.putBoolean((Boolean)o);
+        break;
+      case DataType.INTEGER:
+        hasher.putInt((Integer)o);
+        break;
+      case DataType.LONG:
+        hasher.putLong((Long)o);
+        break;
+      case DataType.FLOAT:
+        hasher.putFloat((Float)o);
+        break;
+      case DataType.DOUBLE:
+        hasher.putDouble((Double)o);
+        break;
+      case DataType.CHARARRAY:
+        String s = (String)o;
+        hasher.putInt(s.length());
+        hasher.putUnencodedChars(s);
+        break;
+      case DataType.BYTEARRAY:
+        byte[] bytes = ((DataByteArray)o).get();
+        hasher.putInt(bytes.length);
+        hasher.putBytes(bytes);
+        break;
+      case DataType.TUPLE:
+        putTuple(hasher, (Tuple)o);
+        break;
+      default:
+        // bags, maps and the remaining types are rare as distinct keys
+        String str = o.toString();
+        hasher.putInt(str.length());
+        hasher.putUnencodedChars(str);
+        break;
+    }
+  }
+  
+  static DataByteArray toBytes(HyperLogLogPlus estimator) throws IOException
+  {
+    return new DataByteArray(estimator.getBytes());
+  }
+  
+  /**
+   * Merges the serialized estimators held in the first field of each tuple of the bag.
+   * 
+   * @param bag tuples holding serialized estimators, null estimators are skipped
+   * @param merged the estimator to merge into, may be null 
+   * @return the merged estimator, or null if merged was null and the bag held no estimators
+   * @throws IOException
+   */
+  static HyperLogLogPlus mergeIntermediates(HyperLogLogPlus merged, DataBag bag) throws IOException
+  {
+    for (Tuple t : bag)
+    {
+      DataByteArray bytes = (DataByteArray)t.get(0);
+      if (bytes == null)
+      {
+        continue;
+      }
+      
+      HyperLogLogPlus estimator = HyperLogLogPlus.Builder.build(bytes.get());
+      if (merged == null)
+      {
+        merged = estimator;
+      }
+      else
+      {
+        try
+        {
+          merged.addAll(estimator);
+        }
+        catch (CardinalityMergeException e)
+        {
+          throw new IOException("Cannot merge estimators, they must have the same precision", e);
+        }
+      }
+    }
+    return merged;
+  }
+  
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    private final int p;
+    private final boolean murmur3;
+    
+    public Initial(String p, String hashing)
+    {
+      this.p = Integer.parseInt(p);
+      this.murmur3 = isMurmur3Hashing(hashing);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      HyperLogLogPlus estimator = newEstimator(p);
+      addValues(estimator, (DataBag)input.get(0), murmur3);
+      return TupleFactory.getInstance().newTuple(toBytes(estimator));
+    }
+  }
+  
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final int p;
+    
+    public Intermediate(String p, String hashing)
+    {
+      this.p = Integer.parseInt(p);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      HyperLogLogPlus merged = mergeIntermediates(newEstimator(p), (DataBag)input.get(0));
+      return TupleFactory.getInstance().newTuple(toBytes(merged));
+    }
+  }
+  
+  static public class Final extends EvalFunc<Long>
+  {
+    private final int p;
+    
+    public Final(String p, String hashing)
+    {
+      this.p = Integer.parseInt(p);
+    }
+
+    @Override
+    public Long exec(Tuple input) throws IOException
+    {
+      return mergeIntermediates(newEstimator(p), (DataBag)input.get(0)).cardinality();
+    }
+  }
 }
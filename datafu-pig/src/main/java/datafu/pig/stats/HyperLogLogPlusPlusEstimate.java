@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.data.DataByteArray;
+
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+
+import datafu.pig.util.SimpleEvalFunc;
+
+/**
+ * A UDF that estimates the cardinality from a HyperLogLog++ sketch produced by {@link HyperLogLogPlusPlusSketch}
+ * or {@link HyperLogLogPlusPlusMerge}.  Returns null for a null sketch.
+ * 
+ * @see HyperLogLogPlusPlusSketch
+ */
+public class HyperLogLogPlusPlusEstimate extends SimpleEvalFunc<Long>
+{
+  public Long call(DataByteArray sketch) throws IOException
+  {
+    if (sketch == null)
+    {
+      return null;
+    }
+    
+    return HyperLogLogPlus.Builder.build(sketch.get()).cardinality();
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+
+/**
+ * A UDF that merges a bag of HyperLogLog++ sketches produced by {@link HyperLogLogPlusPlusSketch} into a single sketch.
+ * 
+ * <p>
+ * The merged sketch estimates the cardinality of the union of the inputs to each of the sketches.  All the sketches
+ * must have been produced with the same precision.  Null sketches are ignored, and if the bag contains no sketches
+ * the result is null.
+ * </p>
+ * 
+ * @see HyperLogLogPlusPlusSketch
+ * @see HyperLogLogPlusPlusEstimate
+ */
+public class HyperLogLogPlusPlusMerge extends AccumulatorEvalFunc<DataByteArray>
+{
+  private HyperLogLogPlus merged;
+  
+  @Override
+  public void accumulate(Tuple arg0) throws IOException
+  {
+    this.merged = HyperLogLogPlusPlus.mergeIntermediates(this.merged, (DataBag)arg0.get(0));
+  }
+
+  @Override
+  public void cleanup()
+  {
+    this.merged = null;
+  }
+
+  @Override
+  public DataByteArray getValue()
+  {
+    if (this.merged == null)
+    {
+      return null;
+    }
+    
+    try
+    {
+      return HyperLogLogPlusPlus.toBytes(this.merged);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      if (input.size() != 1)
+      {
+        throw new RuntimeException("Expected input to have only a single field");
+      }
+      
+      Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+      if (inputFieldSchema.type != DataType.BAG)
+      {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+      
+      return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+    }
+    catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * A UDF that applies the HyperLogLog++ cardinality estimation algorithm and produces the estimator itself,
+ * serialized as a bytearray, rather than the cardinality.
+ * 
+ * <p>
+ * Unlike the cardinality produced by {@link HyperLogLogPlusPlus}, sketches can be stored and later combined
+ * with {@link HyperLogLogPlusPlusMerge}.  For example, daily sketches can be merged to count weekly or monthly
+ * uniques without rescanning the raw data.  The cardinality of a sketch is computed with 
+ * {@link HyperLogLogPlusPlusEstimate}.  Sketches can only be merged with sketches having the same precision
+ * and hashing mode.  As with {@link HyperLogLogPlusPlus}, the optional second parameter selects the hashing mode.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define Sketch datafu.pig.stats.HyperLogLogPlusPlusSketch();
+ * define MergeSketches datafu.pig.stats.HyperLogLogPlusPlusMerge();
+ * define Estimate datafu.pig.stats.HyperLogLogPlusPlusEstimate();
+ * 
+ * -- input: (day:chararray, member_id:int)
+ * daily = FOREACH (GROUP input BY day) GENERATE group as day, Sketch(input.member_id) as sketch;
+ * STORE daily INTO 'daily_sketches';
+ * 
+ * -- later, count the uniques across all the stored days
+ * daily = LOAD 'daily_sketches' AS (day:chararray, sketch:bytearray);
+ * total = FOREACH (GROUP daily ALL) GENERATE Estimate(MergeSketches(daily.sketch)) as cardinality;
+ * }
+ * </pre>
+ * </p>
+ * 
+ * @see HyperLogLogPlusPlus
+ */
+public class HyperLogLogPlusPlusSketch extends AccumulatorEvalFunc<DataByteArray>
+{
+  private com.clearspring.analytics.stream.cardinality.HyperLogLogPlus estimator;
+  
+  private final int p;
+  private final boolean murmur3;
+  
+  /**
+   * Constructs a HyperLogLog++ sketch.
+   */
+  public HyperLogLogPlusPlusSketch()
+  {
+    this("20");
+  }
+  
+  /**
+   * Constructs a HyperLogLog++ sketch.
+   * 
+   * @param p precision value
+   */
+  public HyperLogLogPlusPlusSketch(String p)
+  {
+    this(p, HyperLogLogPlusPlus.TUPLE_HASHING);
+  }
+  
+  /**
+   * Constructs a HyperLogLog++ sketch.
+   * 
+   * @param p precision value
+   * @param hashing either 'tuple' to let stream-lib hash each tuple, or 'murmur3' to hash the field values with MurmurHash3
+   */
+  public HyperLogLogPlusPlusSketch(String p, String hashing)
+  {
+    this.p = Integer.parseInt(p);
+    this.murmur3 = HyperLogLogPlusPlus.isMurmur3Hashing(hashing);
+    cleanup();
+  }
+  
+  @Override
+  public void accumulate(Tuple arg0) throws IOException
+  {
+    DataBag inputBag = (DataBag)arg0.get(0);
+    HyperLogLogPlusPlus.addValues(estimator, inputBag, murmur3);
+  }
+
+  @Override
+  public void cleanup()
+  {
+    this.estimator = HyperLogLogPlusPlus.newEstimator(p);
+  }
+
+  @Override
+  public DataByteArray getValue()
+  {
+    try
+    {
+      return new DataByteArray(this.estimator.getBytes());
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      if (input.size() != 1)
+      {
+        throw new RuntimeException("Expected input to have only a single field");
+      }
+      
+      Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+      if (inputFieldSchema.type != DataType.BAG)
+      {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+      
+      return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+    }
+    catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
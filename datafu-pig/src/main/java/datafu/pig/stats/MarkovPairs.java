@@ -20,19 +20,16 @@
 package datafu.pig.stats;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
 
 import org.apache.pig.EvalFunc;
-import org.apache.pig.backend.executionengine.ExecException;
-import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
-import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
 
+import datafu.pig.util.LazyPairsBag;
+
 
 /**
  * Accepts a bag of tuples, with user supplied ordering, and generates pairs that can be used for
@@ -41,50 +38,22 @@ import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
  *                ((1),(4)),
  *                ((4),(7))}
  * A lookahead factor tells the UDF how many steps in to the future to include. so, for a,b,c with a lookahead
- * of 2, a would be paired with both b and c.
+ * of 2, a would be paired with both b and c.  A lookahead of 0, or less, produces no pairs.
  * The results are ordered are returned as ordered by the caller.
 */
 
 public class MarkovPairs extends EvalFunc<DataBag>
 {
-  private static final BagFactory bagFactory = BagFactory.getInstance();
-  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
-
-  private static long lookahead_steps;
-
-  private final int SPILL_THRESHOLD = 1000000;
+  private final long lookahead_steps;
 
   public MarkovPairs()
   {   
-      MarkovPairs.lookahead_steps = 1;
+      this.lookahead_steps = 1;
   }
   
   public MarkovPairs(String lookahead_steps)
   {   
-      MarkovPairs.lookahead_steps = Integer.valueOf(lookahead_steps);
-  }
-
-  /* start and end are inclusive. This forms transition pairs */
-  private void generatePairs(ArrayList<Tuple> input, int start, int end, DataBag outputBag)
-      throws ExecException
-  {
-    int count = 0;
-    for (int i = start; (i + 1)<= end; i++) {
-      Tuple elem1 = input.get(i);
-      
-      lookahead:
-      for (int j = i+1; j <= i + lookahead_steps; j++)
-      {
-        if (j > end) break lookahead;
-        Tuple elem2 = input.get(j);        
-        if (count >= SPILL_THRESHOLD) {
-          outputBag.spill();
-          count = 0;
-        }
-        outputBag.add(tupleFactory.newTuple(Arrays.asList(elem1, elem2)));
-        count ++;
-      }
-    }
+      this.lookahead_steps = Math.max(0, Integer.valueOf(lookahead_steps));
   }
 
   @Override
@@ -93,30 +62,10 @@ public class MarkovPairs extends EvalFunc<DataBag>
   {
     //things come in a tuple, in our case we have a bag (ordered views) passed. This is embedded in a length one tuple
     
-    DataBag inputBag = (DataBag) input.get(0);         
-    ArrayList<Tuple> inputData = new ArrayList<Tuple>();
-
-    for (Tuple tuple : inputBag) {
-      inputData.add(tuple);
-    }
-
-    int inputSize = inputData.size();
-
-    try {
-      DataBag outputBag = bagFactory.newDefaultBag();
-
-      int startPos = 0;
-
-      int stopPos = inputSize - 1;
-      generatePairs(inputData, startPos, stopPos, outputBag);
-
-      // set startPos for the next bucket
-      startPos = stopPos + 1;
-      return outputBag;
-    }
-    catch (Exception e) {
-      throw new IOException(e);
-    }
+    DataBag inputBag = (DataBag) input.get(0);
+    
+    // pairs are generated as the output is read, buffering only the lookahead window
+    return new LazyPairsBag(inputBag, lookahead_steps);
   }
 
 
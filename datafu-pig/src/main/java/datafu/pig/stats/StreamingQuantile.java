@@ -19,14 +19,24 @@
 
 package datafu.pig.stats;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
@@ -49,8 +59,10 @@ import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
  * </p>
  * 
  * <p>
- * N.B., all the data is pushed to a single reducer per key, so make sure some partitioning is 
- * done (e.g., group by 'day') if the data is too large.  That is, this isn't distributed quantiles.
+ * StreamingQuantile is algebraic, so Pig can compute partial estimates on the map side with a combiner.
+ * Each partial estimate is serialized as the Munro-Paterson buffers, which are bounded in size, and the buffers
+ * are merged in the same way the algorithm merges them as data arrives.  Only one estimate per map task per key 
+ * is shuffled, rather than all the values.
  * </p>
  * 
  * <p>
@@ -120,8 +132,9 @@ import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
  * @see StreamingMedian
  * @see Quantile
  */
-public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
+public class StreamingQuantile extends AccumulatorEvalFunc<Tuple> implements Algebraic
 {
+  private final String[] params;
   private final int numQuantiles;
   private final QuantileEstimator estimator;
   private List<Double> quantiles;
@@ -133,6 +146,7 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
   
   public StreamingQuantile(String... k)
   {
+    this.params = k;
     if (k.length == 1 && Double.parseDouble(k[0]) > 1.0) 
     {
       this.ordinalOutputSchema = true;
@@ -146,6 +160,18 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
     this.estimator = new QuantileEstimator(this.numQuantiles);
   }
   
+  private static int getNumQuantilesFromParams(String... k)
+  {
+    if (k.length == 1 && Double.parseDouble(k[0]) > 1.0) 
+    {
+      return Integer.parseInt(k[0]);
+    }
+    else
+    {
+      return getNumQuantiles(QuantileUtil.getQuantilesFromParams(k));
+    }
+  }
+  
   private static int getNumQuantiles(List<Double> quantiles)
   {
     quantiles = new ArrayList<Double>(quantiles);
@@ -190,7 +216,11 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
   @Override
   public void accumulate(Tuple b) throws IOException
   {
-    DataBag bag = (DataBag) b.get(0);
+    addValues(estimator, (DataBag) b.get(0));
+  }
+  
+  private static void addValues(QuantileEstimator estimator, DataBag bag) throws IOException
+  {
     if (bag == null || bag.size() == 0)
       return;
 
@@ -269,14 +299,127 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
     }
   }
 
+  private String getParam()
+  {
+    StringBuilder param = new StringBuilder("(");
+    for (int i=0; i<this.params.length; i++)
+    {
+      if (i > 0)
+      {
+        param.append(",");
+      }
+      param.append("'").append(this.params[i]).append("'");
+    }
+    return param.append(")").toString();
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName() + getParam();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + getParam();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + getParam();
+  }
+  
+  private static DataByteArray toBytes(QuantileEstimator estimator) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    estimator.write(out);
+    out.close();
+    return new DataByteArray(bytes.toByteArray());
+  }
+  
+  private static void mergeIntermediates(QuantileEstimator estimator, DataBag bag) throws IOException
+  {
+    for (Tuple t : bag)
+    {
+      DataByteArray bytes = (DataByteArray) t.get(0);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.get()));
+      estimator.merge(QuantileEstimator.read(estimator.numQuantiles, in));
+    }
+  }
+  
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    private final QuantileEstimator estimator;
+    
+    public Initial(String... k)
+    {
+      this.estimator = new QuantileEstimator(getNumQuantilesFromParams(k));
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      estimator.clear();
+      addValues(estimator, (DataBag) input.get(0));
+      return TupleFactory.getInstance().newTuple(toBytes(estimator));
+    }
+  }
+  
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final QuantileEstimator estimator;
+    
+    public Intermediate(String... k)
+    {
+      this.estimator = new QuantileEstimator(getNumQuantilesFromParams(k));
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      estimator.clear();
+      mergeIntermediates(estimator, (DataBag) input.get(0));
+      return TupleFactory.getInstance().newTuple(toBytes(estimator));
+    }
+  }
+  
+  static public class Final extends EvalFunc<Tuple>
+  {
+    // produces the output in the same way as the accumulator
+    private final StreamingQuantile quantile;
+    
+    public Final(String... k)
+    {
+      this.quantile = new StreamingQuantile(k);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      quantile.cleanup();
+      mergeIntermediates(quantile.estimator, (DataBag) input.get(0));
+      if (quantile.estimator.isEmpty())
+      {
+        return null;
+      }
+      return quantile.getValue();
+    }
+  }
+
   static class QuantileEstimator
   {
     private static final long MAX_TOT_ELEMS = 1024L * 1024L * 1024L * 1024L;
 
-    private final List<List<Double>> buffer = new ArrayList<List<Double>>();
+    // Each level is a primitive array of maxElementsPerBuffer values, along with the number of values it holds.
+    // Levels 0 and 1 fill up with individual values.  Higher levels are always either empty or full and sorted.
+    private double[][] buffer = new double[0][];
+    private int[] bufferSizes = new int[0];
     private final int numQuantiles;
     private final int maxElementsPerBuffer;
-    private int totalElements;
+    private long totalElements;
     private double min;
     private double max;
     
@@ -284,6 +427,8 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
     {
       this.numQuantiles = numQuantiles;
       this.maxElementsPerBuffer = computeMaxElementsPerBuffer();
+      ensureBuffer(0);
+      ensureBuffer(1);
     }
     
     private int computeMaxElementsPerBuffer()
@@ -298,47 +443,54 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
     
     private void ensureBuffer(int level)
     {
-      while (buffer.size() < level + 1) {
-        buffer.add(null);
+      if (buffer.length < level + 1) {
+        buffer = Arrays.copyOf(buffer, level + 1);
+        bufferSizes = Arrays.copyOf(bufferSizes, level + 1);
       }
-      if (buffer.get(level) == null) {
-        buffer.set(level, new ArrayList<Double>());
+      if (buffer[level] == null) {
+        buffer[level] = new double[maxElementsPerBuffer];
       }
     }
     
-    private void collapse(List<Double> a, List<Double> b, List<Double> out)
+    private void collapse(double[] a, double[] b, double[] out)
     {
-      int indexA = 0, indexB = 0, count = 0;
-      Double smaller = null;
+      int indexA = 0, indexB = 0, count = 0, indexOut = 0;
+      double smaller;
       while (indexA < maxElementsPerBuffer || indexB < maxElementsPerBuffer) {
         if (indexA >= maxElementsPerBuffer ||
-            (indexB < maxElementsPerBuffer && a.get(indexA) >= b.get(indexB))) {
-          smaller = b.get(indexB++);
+            (indexB < maxElementsPerBuffer && a[indexA] >= b[indexB])) {
+          smaller = b[indexB++];
         } else {
-          smaller = a.get(indexA++);
+          smaller = a[indexA++];
         }
         
         if (count++ % 2 == 0) {
-          out.add(smaller);
+          out[indexOut++] = smaller;
         }
       }
-      a.clear();
-      b.clear();
     }
     
-    private void recursiveCollapse(List<Double> buf, int level)
+    /**
+     * Collapses a full, sorted buffer with the full buffer at the given level, which is emptied.  The result
+     * goes to the next level up, carrying on upwards until an empty level is found.
+     */
+    private void recursiveCollapse(double[] buf, int level)
     {
       ensureBuffer(level + 1);
       
-      List<Double> merged;
-      if (buffer.get(level + 1).isEmpty()) {
-        merged = buffer.get(level + 1);
+      double[] merged;
+      if (bufferSizes[level + 1] == 0) {
+        merged = buffer[level + 1];
       } else {
-        merged = new ArrayList<Double>(maxElementsPerBuffer);
+        merged = new double[maxElementsPerBuffer];
       }
       
-      collapse(buffer.get(level), buf, merged);
-      if (buffer.get(level + 1) != merged) {
+      collapse(buffer[level], buf, merged);
+      bufferSizes[level] = 0;
+      
+      if (buffer[level + 1] == merged) {
+        bufferSizes[level + 1] = maxElementsPerBuffer;
+      } else {
         recursiveCollapse(merged, level + 1);
       }
     }
@@ -352,38 +504,118 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
         max = elem;
       }
       
-      if (totalElements > 0 && totalElements % (2 * maxElementsPerBuffer) == 0) {
-        Collections.sort(buffer.get(0));
-        Collections.sort(buffer.get(1));
-        recursiveCollapse(buffer.get(0), 1);
+      if (bufferSizes[0] == maxElementsPerBuffer && bufferSizes[1] == maxElementsPerBuffer) {
+        Arrays.sort(buffer[0]);
+        Arrays.sort(buffer[1]);
+        recursiveCollapse(buffer[0], 1);
+        bufferSizes[0] = 0;
       }
       
-      ensureBuffer(0);
-      ensureBuffer(1);
-      int index = buffer.get(0).size() < maxElementsPerBuffer ? 0 : 1;
-      buffer.get(index).add(elem);
+      int index = bufferSizes[0] < maxElementsPerBuffer ? 0 : 1;
+      buffer[index][bufferSizes[index]++] = elem;
       totalElements++;
     }
 
     public void clear()
     {
-      buffer.clear();
+      // keep the arrays for reuse
+      Arrays.fill(bufferSizes, 0);
       totalElements = 0;
     }
+    
+    public boolean isEmpty()
+    {
+      return totalElements == 0;
+    }
+    
+    /**
+     * Merges another estimate into this one.  The buffers at level 2 and above are full and sorted, with each element 
+     * standing for 2^(level-1) values, so they are collapsed in exactly as this estimator's own full buffers would be.
+     * The two lowest levels hold individual values, which are simply added.
+     */
+    public void merge(QuantileEstimator other)
+    {
+      if (other.maxElementsPerBuffer != maxElementsPerBuffer) {
+        throw new IllegalArgumentException("Cannot merge estimates computed for a different number of quantiles");
+      }
+      
+      if (other.totalElements == 0) {
+        return;
+      }
+      
+      if (totalElements == 0 || other.min < min) {
+        min = other.min;
+      }
+      if (totalElements == 0 || max < other.max) {
+        max = other.max;
+      }
+      
+      for (int level = 2; level < other.buffer.length; level++) {
+        if (other.bufferSizes[level] > 0) {
+          ensureBuffer(level);
+          if (bufferSizes[level] == 0) {
+            System.arraycopy(other.buffer[level], 0, buffer[level], 0, maxElementsPerBuffer);
+            bufferSizes[level] = maxElementsPerBuffer;
+          } else {
+            // the other buffer is only read from
+            recursiveCollapse(other.buffer[level], level);
+          }
+          totalElements += (long) maxElementsPerBuffer << (level - 1);
+        }
+      }
+      
+      for (int level = 0; level < 2; level++) {
+        double[] buf = other.buffer[level];
+        for (int i = 0; i < other.bufferSizes[level]; i++) {
+          add(buf[i]);
+        }
+      }
+    }
+    
+    public void write(DataOutput out) throws IOException
+    {
+      out.writeLong(totalElements);
+      out.writeDouble(min);
+      out.writeDouble(max);
+      out.writeInt(buffer.length);
+      for (int level = 0; level < buffer.length; level++) {
+        int size = bufferSizes[level];
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+          out.writeDouble(buffer[level][i]);
+        }
+      }
+    }
+    
+    public static QuantileEstimator read(int numQuantiles, DataInput in) throws IOException
+    {
+      QuantileEstimator estimator = new QuantileEstimator(numQuantiles);
+      estimator.totalElements = in.readLong();
+      estimator.min = in.readDouble();
+      estimator.max = in.readDouble();
+      int levels = in.readInt();
+      for (int level = 0; level < levels; level++) {
+        int size = in.readInt();
+        if (size > 0) {
+          estimator.ensureBuffer(level);
+          for (int i = 0; i < size; i++) {
+            estimator.buffer[level][i] = in.readDouble();
+          }
+          estimator.bufferSizes[level] = size;
+        }
+      }
+      return estimator;
+    }
 
     public List<Double> getQuantiles()
     {
       List<Double> quantiles = new ArrayList<Double>();
       quantiles.add(min);
       
-      if (buffer.get(0) != null) {
-        Collections.sort(buffer.get(0));
-      }
-      if (buffer.get(1) != null) {
-        Collections.sort(buffer.get(1));
-      }
+      Arrays.sort(buffer[0], 0, bufferSizes[0]);
+      Arrays.sort(buffer[1], 0, bufferSizes[1]);
       
-      int[] index = new int[buffer.size()];
+      int[] index = new int[buffer.length];
       long S = 0;
       for (int i = 1; i <= numQuantiles - 2; i++) {
         long targetS = (long) Math.ceil(i * (totalElements / (numQuantiles - 1.0)));
@@ -391,10 +623,10 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
         while (true) {
           double smallest = max;
           int minBufferId = -1;
-          for (int j = 0; j < buffer.size(); j++) {
-            if (buffer.get(j) != null && index[j] < buffer.get(j).size()) {
-              if (!(smallest < buffer.get(j).get(index[j]))) {
-                smallest = buffer.get(j).get(index[j]);
+          for (int j = 0; j < buffer.length; j++) {
+            if (index[j] < bufferSizes[j]) {
+              if (!(smallest < buffer[j][index[j]])) {
+                smallest = buffer[j][index[j]];
                 minBufferId = j;
               }
             }
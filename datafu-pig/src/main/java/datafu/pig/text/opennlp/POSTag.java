@@ -58,14 +58,29 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  */
 public class POSTag extends EvalFunc<DataBag>
 {
-    private POSTaggerME tagger = null;
     private static final String MODEL_FILE = "pos";
     private TupleFactory tf = TupleFactory.getInstance();
     private BagFactory bf = BagFactory.getInstance();
     private String modelPath;
+    private final SharedModel<POSModel, POSTaggerME> tagger;
 
     public POSTag(String modelPath) {
         this.modelPath = modelPath;
+        this.tagger = posModel(modelPath);
+    }
+
+    static SharedModel<POSModel, POSTaggerME> posModel(String modelPath) {
+        return new SharedModel<POSModel, POSTaggerME>(POSModel.class, MODEL_FILE, modelPath) {
+            @Override
+            protected POSModel loadModel(InputStream in) throws IOException {
+                return new POSModel(in);
+            }
+
+            @Override
+            protected POSTaggerME createTool(POSModel model) {
+                return new POSTaggerME(model);
+            }
+        };
     }
 
     @Override
@@ -86,13 +101,7 @@ public class POSTag extends EvalFunc<DataBag>
 
         inputBag = (DataBag)input.get(0);
         DataBag outBag = bf.newDefaultBag();
-        if(this.tagger == null) {
-            String loadFile = CachedFile.getFileName(MODEL_FILE, this.modelPath);
-            InputStream modelIn = new FileInputStream(loadFile);
-            InputStream buffer = new BufferedInputStream(modelIn);
-            POSModel model = new POSModel(buffer);
-            this.tagger = new POSTaggerME(model);
-        }
+        POSTaggerME tagger = this.tagger.get();
 
         // Form an inputString array thing for tagger to act on
         int bagLength = (int)inputBag.size();
@@ -106,8 +115,8 @@ public class POSTag extends EvalFunc<DataBag>
         }
 
         // Compute tags and their probabilities
-        String tags[] = this.tagger.tag(words);
-        double probs[] = this.tagger.probs();
+        String tags[] = tagger.tag(words);
+        double probs[] = tagger.probs();
 
         // Build output bag of 3-tuples
         for(int j = 0; j < tags.length; j++) {
@@ -121,6 +130,11 @@ public class POSTag extends EvalFunc<DataBag>
         return outBag;
     }
 
+    @Override
+    public void finish() {
+        this.tagger.release();
+    }
+
     @Override
     public Schema outputSchema(Schema input)
     {
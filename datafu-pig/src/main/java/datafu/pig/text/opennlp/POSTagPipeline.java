@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package datafu.pig.text.opennlp;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import opennlp.tools.postag.POSModel;
+import opennlp.tools.postag.POSTaggerME;
+import opennlp.tools.sentdetect.SentenceDetectorME;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerME;
+import opennlp.tools.tokenize.TokenizerModel;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.*;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * The OpenNLP POSTagPipeline UDF splits a document into sentences, tokenizes each sentence and tags the tokens
+ * with parts of speech in a single pass, equivalent to running SentenceDetect, TokenizeME and POSTag in turn.
+ * <p>
+ * The tokens of each sentence go straight from the tokenizer to the tagger, with no intermediate bags, and the
+ * models are shared with any of those UDFs using the same model files.
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define POSTagPipeline datafu.pig.text.opennlp.POSTagPipeline('data/en-sent.bin', 'data/en-token.bin', 'data/en-pos-maxent.bin');
+ *
+ * -- input:
+ * -- (I believe the Masons have infiltrated the Apache PMC. I believe laser beams control cat brains.)
+ * input = LOAD 'input' AS (text:chararray);
+ *
+ * -- output:
+ * -- Tuple schema is: (sentence_idx, token, tag)
+ * -- ({(0,I,PRP),(0,believe,VBP),(0,the,DT),...,(1,I,PRP),(1,believe,VBP),...})
+ * output = FOREACH input GENERATE POSTagPipeline(text) AS tagged;
+ * }
+ * </pre>
+ */
+public class POSTagPipeline extends EvalFunc<DataBag>
+{
+    private TupleFactory tf = TupleFactory.getInstance();
+    private BagFactory bf = BagFactory.getInstance();
+    private final String sentenceModelPath;
+    private final String tokenModelPath;
+    private final String posModelPath;
+    private final SharedModel<SentenceModel, SentenceDetectorME> sdetector;
+    private final SharedModel<TokenizerModel, TokenizerME> tokenizer;
+    private final SharedModel<POSModel, POSTaggerME> tagger;
+
+    public POSTagPipeline(String sentenceModelPath, String tokenModelPath, String posModelPath) {
+        this.sentenceModelPath = sentenceModelPath;
+        this.tokenModelPath = tokenModelPath;
+        this.posModelPath = posModelPath;
+        this.sdetector = SentenceDetect.sentenceModel(sentenceModelPath);
+        this.tokenizer = TokenizeME.tokenizerModel(tokenModelPath);
+        this.tagger = POSTag.posModel(posModelPath);
+    }
+
+    @Override
+    public List<String> getCacheFiles() {
+        // same symlink names as SentenceDetect, TokenizeME and POSTag
+        List<String> list = new ArrayList<String>(3);
+        list.add(this.sentenceModelPath + "#sentences");
+        list.add(this.tokenModelPath + "#tokens");
+        list.add(this.posModelPath + "#pos");
+        return list;
+    }
+
+    public DataBag exec(Tuple input) throws IOException
+    {
+        if(input.size() != 1) {
+            throw new IOException();
+        }
+
+        Object inputObject = input.get(0);
+        if(inputObject == null) {
+            return null;
+        }
+        String inputString = inputObject.toString();
+        if(inputString.isEmpty()) {
+            return null;
+        }
+
+        SentenceDetectorME sdetector = this.sdetector.get();
+        TokenizerME tokenizer = this.tokenizer.get();
+        POSTaggerME tagger = this.tagger.get();
+
+        DataBag outBag = bf.newDefaultBag();
+        String sentences[] = sdetector.sentDetect(inputString);
+        for(int i = 0; i < sentences.length; i++) {
+            String tokens[] = tokenizer.tokenize(sentences[i]);
+            String tags[] = tagger.tag(tokens);
+            for(int j = 0; j < tokens.length; j++) {
+                Tuple newTuple = tf.newTuple(3);
+                newTuple.set(0, i);
+                newTuple.set(1, tokens[j]);
+                newTuple.set(2, tags[j]);
+                outBag.add(newTuple);
+            }
+        }
+        return outBag;
+    }
+
+    @Override
+    public void finish() {
+        this.sdetector.release();
+        this.tokenizer.release();
+        this.tagger.release();
+    }
+
+    @Override
+    public Schema outputSchema(Schema input)
+    {
+        try
+        {
+            Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+            if (inputFieldSchema.type != DataType.CHARARRAY)
+            {
+                throw new RuntimeException("Expected a CHARARRAY as input, but got a " + inputFieldSchema.toString());
+            }
+
+            Schema tupleSchema = new Schema();
+            tupleSchema.add(new Schema.FieldSchema("sentence_idx",DataType.INTEGER));
+            tupleSchema.add(new Schema.FieldSchema("token",DataType.CHARARRAY));
+            tupleSchema.add(new Schema.FieldSchema("tag",DataType.CHARARRAY));
+
+            return new Schema(new Schema.FieldSchema(getSchemaName(this.getClass()
+                    .getName()
+                    .toLowerCase(), input),
+                    tupleSchema,
+                    DataType.BAG));
+        }
+        catch (FrontendException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -49,14 +49,29 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  */
 public class SentenceDetect extends EvalFunc<DataBag>
 {
-    private SentenceDetectorME sdetector = null;
     private static final String MODEL_FILE = "sentences";
     private TupleFactory tf = TupleFactory.getInstance();
     private BagFactory bf = BagFactory.getInstance();
     private String modelPath = null;
+    private final SharedModel<SentenceModel, SentenceDetectorME> sdetector;
 
     public SentenceDetect(String modelPath) {
         this.modelPath = modelPath;
+        this.sdetector = sentenceModel(modelPath);
+    }
+
+    static SharedModel<SentenceModel, SentenceDetectorME> sentenceModel(String modelPath) {
+        return new SharedModel<SentenceModel, SentenceDetectorME>(SentenceModel.class, MODEL_FILE, modelPath) {
+            @Override
+            protected SentenceModel loadModel(InputStream in) throws IOException {
+                return new SentenceModel(in);
+            }
+
+            @Override
+            protected SentenceDetectorME createTool(SentenceModel model) {
+                return new SentenceDetectorME(model);
+            }
+        };
     }
 
     @Override
@@ -78,14 +93,7 @@ public class SentenceDetect extends EvalFunc<DataBag>
             return null;
         }
         DataBag outBag = bf.newDefaultBag();
-        if(sdetector == null) {
-            String loadFile = CachedFile.getFileName(MODEL_FILE, this.modelPath);
-            InputStream is = new FileInputStream(modelPath);
-            InputStream buffer = new BufferedInputStream(is);
-            SentenceModel model = new SentenceModel(buffer);
-            this.sdetector = new SentenceDetectorME(model);
-        }
-        String sentences[] = this.sdetector.sentDetect(inputString);
+        String sentences[] = this.sdetector.get().sentDetect(inputString);
         for(String sentence : sentences) {
             Tuple outTuple = tf.newTuple(sentence);
             outBag.add(outTuple);
@@ -93,6 +101,11 @@ public class SentenceDetect extends EvalFunc<DataBag>
         return outBag;
     }
 
+    @Override
+    public void finish() {
+        this.sdetector.release();
+    }
+
     @Override
     public Schema outputSchema(Schema input)
     {
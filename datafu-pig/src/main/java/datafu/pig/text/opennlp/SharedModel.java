@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.text.opennlp;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.pig.tools.pigstats.PigStatusReporter;
+
+/**
+ * An OpenNLP model shared by all UDF instances in the JVM that use the same model file, with
+ * one tool instance built from it per thread.
+ *
+ * <p>
+ * OpenNLP models are immutable and safe to share, but they take several megabytes and seconds to
+ * deserialize, while the tools built from them, such as TokenizerME, are not thread-safe.  Models are
+ * kept in a JVM-wide cache keyed by model class and file, and counted by the number of UDF instances
+ * holding them.  A UDF acquires the model on first use and should call {@link #release()} from
+ * its finish method; the model is dropped from the cache once no UDF holds it.
+ * </p>
+ *
+ * <p>
+ * Each thread's tool remembers the model it was built from, and is rebuilt if the model has since been
+ * released and acquired again.  {@link #release()} only drops the calling thread's tool right away, so
+ * other threads keep the old model reachable until they next call {@link #get()} or end.
+ * </p>
+ *
+ * <p>
+ * UDFs other than those in this package can extend this class to share their own models the same way.
+ * The time spent loading models is added to the Pig counter "Model load millis" in the group "DataFu OpenNLP".
+ * </p>
+ *
+ * @param <M> model type
+ * @param <T> tool type
+ */
+public abstract class SharedModel<M, T>
+{
+  static final String COUNTER_GROUP = "DataFu OpenNLP";
+  static final String LOAD_MILLIS_COUNTER = "Model load millis";
+  static final String LOADS_COUNTER = "Models loaded";
+
+  private static final Map<String, Entry> cache = new HashMap<String, Entry>();
+
+  private static class Entry
+  {
+    final Object model;
+    int references;
+
+    Entry(Object model)
+    {
+      this.model = model;
+    }
+  }
+
+  private final Class<M> modelClass;
+  private final String modelLink;
+  private final String modelPath;
+
+  private String key;
+  private volatile M model;
+
+  private final ThreadLocal<Tool<M, T>> tools = new ThreadLocal<Tool<M, T>>();
+
+  private static class Tool<M, T>
+  {
+    final M model;
+    final T tool;
+
+    Tool(M model, T tool)
+    {
+      this.model = model;
+      this.tool = tool;
+    }
+  }
+
+  /**
+   * @param modelClass class of the model
+   * @param modelLink name of the distributed cache symlink to the model
+   * @param modelPath path of the model file
+   */
+  protected SharedModel(Class<M> modelClass, String modelLink, String modelPath)
+  {
+    this.modelClass = modelClass;
+    this.modelLink = modelLink;
+    this.modelPath = modelPath;
+  }
+
+  /**
+   * Deserializes the model.
+   */
+  protected abstract M loadModel(InputStream in) throws IOException;
+
+  /**
+   * Creates a tool using the model.  Called once per thread each time the model is acquired.
+   */
+  protected abstract T createTool(M model);
+
+  /**
+   * Gets the model, acquiring it from the cache if this is the first use.
+   *
+   * @return model
+   * @throws IOException
+   */
+  public M getModel() throws IOException
+  {
+    M model = this.model;
+    if (model == null)
+    {
+      model = acquire();
+    }
+    return model;
+  }
+
+  /**
+   * Gets the tool for the calling thread, acquiring the model from the cache if this is the first use.
+   *
+   * @return tool
+   * @throws IOException
+   */
+  public T get() throws IOException
+  {
+    M model = getModel();
+    Tool<M, T> tool = tools.get();
+    if (tool == null || tool.model != model)
+    {
+      tool = new Tool<M, T>(model, createTool(model));
+      tools.set(tool);
+    }
+    return tool.tool;
+  }
+
+  private M acquire() throws IOException
+  {
+    synchronized (cache)
+    {
+      if (model != null) return model;
+
+      String loadFile = CachedFile.getFileName(modelLink, modelPath);
+      String key = modelClass.getName() + ":" + new File(loadFile).getCanonicalPath();
+
+      Entry entry = cache.get(key);
+      if (entry == null)
+      {
+        long start = System.currentTimeMillis();
+        InputStream in = new BufferedInputStream(new FileInputStream(loadFile));
+        try
+        {
+          entry = new Entry(loadModel(in));
+        }
+        finally
+        {
+          in.close();
+        }
+        incrementCounter(LOAD_MILLIS_COUNTER, System.currentTimeMillis() - start);
+        incrementCounter(LOADS_COUNTER, 1);
+        cache.put(key, entry);
+      }
+
+      entry.references++;
+      this.key = key;
+      this.model = modelClass.cast(entry.model);
+      return this.model;
+    }
+  }
+
+  /**
+   * Releases the model, removing it from the cache if no other UDF instance holds it, and drops
+   * the calling thread's tool.
+   */
+  public void release()
+  {
+    synchronized (cache)
+    {
+      if (model == null) return;
+
+      Entry entry = cache.get(key);
+      if (entry != null && --entry.references == 0)
+      {
+        cache.remove(key);
+      }
+      model = null;
+      key = null;
+      tools.remove();
+    }
+  }
+
+  private static void incrementCounter(String name, long amount)
+  {
+    PigStatusReporter reporter = PigStatusReporter.getInstance();
+    if (reporter != null)
+    {
+      Counter counter = reporter.getCounter(COUNTER_GROUP, name);
+      if (counter != null)
+      {
+        counter.increment(amount);
+      }
+    }
+  }
+}
@@ -53,14 +53,29 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 public class TokenizeME extends EvalFunc<DataBag>
 {
-    private TokenizerME tokenizer = null;
     private static final String MODEL_FILE = "tokens";
     private TupleFactory tf = TupleFactory.getInstance();
     private BagFactory bf = BagFactory.getInstance();
     private String modelPath;
+    private final SharedModel<TokenizerModel, TokenizerME> tokenizer;
 
     public TokenizeME(String modelPath) {
         this.modelPath = modelPath;
+        this.tokenizer = tokenizerModel(modelPath);
+    }
+
+    static SharedModel<TokenizerModel, TokenizerME> tokenizerModel(String modelPath) {
+        return new SharedModel<TokenizerModel, TokenizerME>(TokenizerModel.class, MODEL_FILE, modelPath) {
+            @Override
+            protected TokenizerModel loadModel(InputStream in) throws IOException {
+                return new TokenizerModel(in);
+            }
+
+            @Override
+            protected TokenizerME createTool(TokenizerModel model) {
+                return new TokenizerME(model);
+            }
+        };
     }
 
     @Override
@@ -82,14 +97,7 @@ public class TokenizeME extends EvalFunc<DataBag>
             return null;
         }
         DataBag outBag = bf.newDefaultBag();
-        if(this.tokenizer == null) {
-            String loadFile = CachedFile.getFileName(MODEL_FILE, this.modelPath);;
-            InputStream file = new FileInputStream(loadFile);
-            InputStream buffer = new BufferedInputStream(file);
-            TokenizerModel model = new TokenizerModel(buffer);
-            this.tokenizer = new TokenizerME(model);
-        }
-        String tokens[] = this.tokenizer.tokenize(inputString);
+        String tokens[] = this.tokenizer.get().tokenize(inputString);
         for(String token : tokens) {
             Tuple outTuple = tf.newTuple(token);
             outBag.add(outTuple);
@@ -97,6 +105,11 @@ public class TokenizeME extends EvalFunc<DataBag>
         return outBag;
     }
 
+    @Override
+    public void finish() {
+        this.tokenizer.release();
+    }
+
     @Override
     public Schema outputSchema(Schema input)
     {
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.util;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Splits bags that are too large to build hash tables over in memory into partitions by the hash of a key,
+ * so that tuples with equal keys from different bags land in the same partition, which can then be 
+ * processed separately.
+ */
+public class HashPartitioner
+{
+  /**
+   * Gets the key a tuple is partitioned by.
+   */
+  public interface KeyExtractor
+  {
+    /**
+     * @param tuple tuple to get the key of
+     * @param bag index of the bag the tuple is from
+     * @return the key, which may be null
+     */
+    Object getKey(Tuple tuple, int bag) throws ExecException;
+  }
+  
+  /**
+   * Uses each tuple itself as the key.
+   */
+  public static final KeyExtractor WHOLE_TUPLE = new KeyExtractor() {
+    @Override
+    public Object getKey(Tuple tuple, int bag)
+    {
+      return tuple;
+    }
+  };
+  
+  private static final int MAX_PARTITIONS = 1 << 16;
+  
+  /**
+   * Spreads the key's hash code, so that partitions, and slots in a hash table, depend on all of its bits.
+   * 
+   * @param key key to hash, may be null
+   * @return the hash
+   */
+  public static int hash(Object key)
+  {
+    int h = key == null ? 0 : key.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+  
+  /**
+   * @return how many partitions to split a build side of the given size into to fit in memory
+   */
+  public static int numPartitions(long buildSize, int maxTuplesInMemory)
+  {
+    // aim for half the maximum per partition, leaving room for skew
+    return (int)Math.min(MAX_PARTITIONS, (2*buildSize + maxTuplesInMemory - 1) / maxTuplesInMemory);
+  }
+  
+  /**
+   * Splits each of the bags into the given number of partitions by the hash of the key of each tuple.  
+   * The partitions are regular bags, which Pig spills to disk under memory pressure.
+   * 
+   * @param bags bags to split
+   * @param numPartitions number of partitions, at most 65536
+   * @param keys gets the key of each tuple
+   * @return the partitions, indexed by partition then bag
+   * @throws ExecException
+   */
+  public static DataBag[][] partition(DataBag[] bags, int numPartitions, KeyExtractor keys) throws ExecException
+  {
+    BagFactory bagFactory = BagFactory.getInstance();
+    DataBag[][] partitions = new DataBag[numPartitions][bags.length];
+    for (DataBag[] partition : partitions)
+    {
+      for (int i=0; i<bags.length; i++)
+      {
+        partition[i] = bagFactory.newDefaultBag();
+      }
+    }
+    
+    for (int i=0; i<bags.length; i++)
+    {
+      for (Tuple tuple : bags[i])
+      {
+        // use the high bits, since the low bits pick the slot within a partition's hash table
+        int p = (int)(((hash(keys.getKey(tuple, i)) >>> 16) * (long)numPartitions) >>> 16);
+        partitions[p][i].add(tuple);
+      }
+    }
+    return partitions;
+  }
+}
@@ -0,0 +1,539 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.tools.pigstats.PigStatusReporter;
+
+/**
+ * A read-only bag of the pairs of tuples in a source bag, generated as the bag is iterated over.
+ *
+ * <p>
+ * Each tuple at position i in the source bag is paired with the tuples at positions i+1 through
+ * i+lookahead.  With an unbounded lookahead this produces all unordered pairs, and with a lookahead
+ * of 0 it produces none.  Each pair is a tuple (elem1, elem2), where elem1 comes before elem2 in the
+ * source bag.
+ * </p>
+ *
+ * <p>
+ * The pairs are never stored by this bag, and its size is computed from the size of the source bag.
+ * When the lookahead window fits within the buffer size, the source is read once, buffering the window,
+ * and the pairs come out ordered by elem1 and then elem2.  Otherwise the source is read in blocks of
+ * buffer size tuples, and each block is paired with one further pass over the source, so memory stays
+ * bounded while the source is read about n/bufferSize times for n tuples.  In that case the pairs within
+ * a block come out first, followed by the block paired with each later tuple.
+ * </p>
+ *
+ * <p>
+ * Pig serializes bags by iterating over them, so whenever Pig writes this bag out, for example between
+ * the map and reduce phases or when storing it, the pairs are materialized.  Only code that calls
+ * {@link #write} directly gets the compact form of the source bag plus the lookahead.
+ * </p>
+ */
+public class LazyPairsBag implements DataBag
+{
+  private static final long serialVersionUID = 1L;
+
+  public static final long UNBOUNDED = Long.MAX_VALUE;
+
+  /**
+   * The default for the most tuples of the source bag buffered at once.
+   */
+  public static final int MAX_BUFFERED_TUPLES = 1 << 20;
+
+  // report progress every this many pairs, so that iterating over many pairs does not time out the task
+  private static final long PROGRESS_MASK = (1 << 14) - 1;
+
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+
+  private DataBag source;
+  private long lookahead;
+  private int bufferSize;
+
+  /**
+   * Creates an empty bag.  Used for deserialization.
+   */
+  public LazyPairsBag()
+  {
+    this(null, UNBOUNDED);
+  }
+
+  /**
+   * Creates a bag of all unordered pairs of the tuples in the source bag.
+   *
+   * @param source bag to pair, null is treated as empty
+   */
+  public LazyPairsBag(DataBag source)
+  {
+    this(source, UNBOUNDED);
+  }
+
+  /**
+   * Creates a bag pairing each tuple of the source bag with the tuples that follow it.
+   *
+   * @param source bag to pair, null is treated as empty
+   * @param lookahead number of following tuples each tuple is paired with
+   */
+  public LazyPairsBag(DataBag source, long lookahead)
+  {
+    this(source, lookahead, MAX_BUFFERED_TUPLES);
+  }
+
+  /**
+   * Creates a bag pairing each tuple of the source bag with the tuples that follow it.
+   *
+   * @param source bag to pair, null is treated as empty
+   * @param lookahead number of following tuples each tuple is paired with
+   * @param bufferSize the most tuples of the source bag to buffer at once
+   */
+  public LazyPairsBag(DataBag source, long lookahead, int bufferSize)
+  {
+    if (lookahead < 0)
+    {
+      throw new IllegalArgumentException("lookahead must not be negative");
+    }
+    if (bufferSize < 1)
+    {
+      throw new IllegalArgumentException("bufferSize must be at least 1");
+    }
+    this.source = source;
+    this.lookahead = lookahead;
+    this.bufferSize = bufferSize;
+  }
+
+  @Override
+  public long size()
+  {
+    if (source == null) return 0;
+
+    long n = source.size();
+    if (n < 2 || lookahead == 0) return 0;
+
+    if (lookahead >= n - 1)
+    {
+      return n * (n - 1) / 2;
+    }
+
+    // the first n-lookahead tuples each get lookahead pairs, the rest get lookahead-1 down to 0
+    return lookahead * (n - lookahead) + lookahead * (lookahead - 1) / 2;
+  }
+
+  @Override
+  public boolean isSorted()
+  {
+    return false;
+  }
+
+  @Override
+  public boolean isDistinct()
+  {
+    return false;
+  }
+
+  @Override
+  public Iterator<Tuple> iterator()
+  {
+    if (size() == 0)
+    {
+      return new PairIterator() {
+        @Override
+        public boolean hasNext()
+        {
+          return false;
+        }
+
+        @Override
+        public Tuple next()
+        {
+          throw new NoSuchElementException();
+        }
+      };
+    }
+
+    long window = Math.min(lookahead, source.size() - 1);
+    if (window < bufferSize)
+    {
+      return new WindowPairsIterator(source, (int)window);
+    }
+
+    return new BlockPairsIterator(source, lookahead, bufferSize);
+  }
+
+  @Override
+  public void add(Tuple t)
+  {
+    throw new UnsupportedOperationException(getClass().getName() + " is read-only");
+  }
+
+  @Override
+  public void addAll(DataBag b)
+  {
+    throw new UnsupportedOperationException(getClass().getName() + " is read-only");
+  }
+
+  @Override
+  public void clear()
+  {
+    source = null;
+  }
+
+  @Override
+  public void markStale(boolean stale)
+  {
+  }
+
+  @Override
+  public long spill()
+  {
+    // the pairs are never held in memory, and the source bag spills itself
+    return 0;
+  }
+
+  @Override
+  public long getMemorySize()
+  {
+    return 0;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException
+  {
+    out.writeLong(lookahead);
+    out.writeInt(bufferSize);
+    out.writeBoolean(source != null);
+    if (source != null)
+    {
+      source.write(out);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException
+  {
+    lookahead = in.readLong();
+    bufferSize = in.readInt();
+    if (in.readBoolean())
+    {
+      source = BagFactory.getInstance().newDefaultBag();
+      source.readFields(in);
+    }
+    else
+    {
+      source = null;
+    }
+  }
+
+  @Override
+  public int compareTo(Object o)
+  {
+    if (this == o) return 0;
+    if (!(o instanceof DataBag)) return -1;
+
+    DataBag other = (DataBag)o;
+    long size = size();
+    long otherSize = other.size();
+    if (size != otherSize) return size < otherSize ? -1 : 1;
+
+    Iterator<Tuple> it = iterator();
+    Iterator<Tuple> otherIt = other.iterator();
+    while (it.hasNext() && otherIt.hasNext())
+    {
+      int c = it.next().compareTo(otherIt.next());
+      if (c != 0) return c;
+    }
+    return 0;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    return o instanceof DataBag && compareTo(o) == 0;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    int hash = 1;
+    for (Tuple t : this)
+    {
+      hash = 31 * hash + t.hashCode();
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append('{');
+    Iterator<Tuple> it = iterator();
+    while (it.hasNext())
+    {
+      sb.append(it.next().toString());
+      if (it.hasNext()) sb.append(',');
+    }
+    sb.append('}');
+    return sb.toString();
+  }
+
+  private static abstract class PairIterator implements Iterator<Tuple>
+  {
+    private long count;
+
+    /**
+     * Creates a pair, reporting progress every so often.
+     */
+    protected Tuple pair(Tuple elem1, Tuple elem2)
+    {
+      if ((++count & PROGRESS_MASK) == 0)
+      {
+        PigStatusReporter reporter = PigStatusReporter.getInstance();
+        if (reporter != null)
+        {
+          reporter.progress();
+        }
+      }
+
+      Tuple pair = tupleFactory.newTuple(2);
+      try
+      {
+        pair.set(0, elem1);
+        pair.set(1, elem2);
+      }
+      catch (ExecException e)
+      {
+        throw new RuntimeException(e);
+      }
+      return pair;
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Pairs each tuple with the tuples following it in a ring buffer holding the lookahead window,
+   * reading the source once.
+   */
+  private static class WindowPairsIterator extends PairIterator
+  {
+    private final Iterator<Tuple> source;
+    private final Tuple[] window;
+    private int head;
+    private int count;
+    private int offset = 1;
+
+    WindowPairsIterator(DataBag source, int lookahead)
+    {
+      this.source = source.iterator();
+      this.window = new Tuple[lookahead + 1];
+      fill();
+    }
+
+    private void fill()
+    {
+      while (count < window.length && source.hasNext())
+      {
+        window[(head + count) % window.length] = source.next();
+        count++;
+      }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return offset < count;
+    }
+
+    @Override
+    public Tuple next()
+    {
+      if (!hasNext()) throw new NoSuchElementException();
+      Tuple result = pair(window[head], window[(head + offset) % window.length]);
+      offset++;
+      if (offset >= count)
+      {
+        // done with the tuple at the head, so slide the window forward
+        window[head] = null;
+        head = (head + 1) % window.length;
+        count--;
+        offset = 1;
+        fill();
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Reads the source in blocks, pairing the tuples within each block, then pairing the block with
+   * the tuples after it in one further pass over the source.  Used when the lookahead window is too
+   * large to buffer.
+   */
+  private static class BlockPairsIterator extends PairIterator
+  {
+    private final DataBag source;
+    private final long lookahead;
+    private final Iterator<Tuple> blocks;
+    private final Tuple[] block;
+    private int blockSize;
+    // position in the source of the first tuple of the block
+    private long blockStart;
+
+    // pairs within the block are (block[i], block[j]), pairs after it are (block[i], later)
+    private int i;
+    private int j;
+    private Iterator<Tuple> laterTuples;
+    private Tuple later;
+    private long laterPosition;
+
+    BlockPairsIterator(DataBag source, long lookahead, int bufferSize)
+    {
+      this.source = source;
+      this.lookahead = lookahead;
+      this.blocks = source.iterator();
+      this.block = new Tuple[bufferSize];
+      nextBlock();
+    }
+
+    private void nextBlock()
+    {
+      blockStart += blockSize;
+      blockSize = 0;
+      while (blockSize < block.length && blocks.hasNext())
+      {
+        block[blockSize++] = blocks.next();
+      }
+      i = 0;
+      j = 1;
+      laterTuples = null;
+      later = null;
+      seek();
+    }
+
+    /**
+     * Moves i and j, or on to the next later tuple or block, until they form a valid pair
+     * or the source is exhausted.
+     */
+    private void seek()
+    {
+      while (blockSize > 0)
+      {
+        if (laterTuples == null)
+        {
+          // pairs within the block
+          if (i < blockSize - 1 && j < blockSize && j - i <= lookahead)
+          {
+            return;
+          }
+          if (i < blockSize - 2)
+          {
+            i++;
+            j = i + 1;
+            continue;
+          }
+          startLaterTuples();
+        }
+        else
+        {
+          // pairs of the block with a later tuple, for the block tuples within the lookahead of it
+          if (later != null && i < blockSize)
+          {
+            return;
+          }
+          if (!nextLaterTuple())
+          {
+            nextBlock();
+            return;
+          }
+        }
+      }
+    }
+
+    private void startLaterTuples()
+    {
+      laterTuples = source.iterator();
+      laterPosition = -1;
+      long end = blockStart + blockSize;
+      while (laterPosition + 1 < end && laterTuples.hasNext())
+      {
+        laterTuples.next();
+        laterPosition++;
+      }
+      later = null;
+      nextLaterTuple();
+    }
+
+    /**
+     * @return whether there is a later tuple within the lookahead of some tuple in the block
+     */
+    private boolean nextLaterTuple()
+    {
+      long lastInBlock = blockStart + blockSize - 1;
+      if (!laterTuples.hasNext() || laterPosition + 1 - lastInBlock > lookahead)
+      {
+        later = null;
+        return false;
+      }
+      later = laterTuples.next();
+      laterPosition++;
+      // the first block tuple within the lookahead of the later tuple
+      i = (int)Math.max(0, laterPosition - lookahead - blockStart);
+      return true;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return blockSize > 0;
+    }
+
+    @Override
+    public Tuple next()
+    {
+      if (!hasNext()) throw new NoSuchElementException();
+      Tuple result;
+      if (laterTuples == null)
+      {
+        result = pair(block[i], block[j]);
+        j++;
+      }
+      else
+      {
+        result = pair(block[i], later);
+        i++;
+      }
+      seek();
+      return result;
+    }
+  }
+}
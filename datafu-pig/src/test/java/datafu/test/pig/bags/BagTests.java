@@ -38,6 +38,7 @@ import org.testng.annotations.Test;
 import datafu.pig.bags.CountEach;
 import datafu.pig.bags.DistinctBy;
 import datafu.pig.bags.Enumerate;
+import datafu.pig.bags.UnorderedPairs;
 import datafu.test.pig.PigTests;
 
 
@@ -363,6 +364,25 @@ public class BagTests extends PigTests
                       "(1,(4),(5))");
   }
 
+  @Test
+  public void unorderedPairsLargeBagTest() throws Exception
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<50000; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)i));
+    }
+
+    // the pairs are generated on iteration, so the output of a large bag takes no memory
+    DataBag output = new UnorderedPairs().exec(TupleFactory.getInstance().newTuple(bag));
+
+    Assert.assertEquals(50000L * 49999L / 2, output.size());
+    Iterator<Tuple> pairs = output.iterator();
+    Assert.assertEquals("((0),(1))", pairs.next().toString());
+    Assert.assertEquals("((0),(2))", pairs.next().toString());
+    Assert.assertEquals("((0),(3))", pairs.next().toString());
+  }
+
   /**
 
 
@@ -1086,6 +1106,78 @@ public class BagTests extends PigTests
     }
   }
 
+  @Test
+  public void countEachSpillTest() throws Exception
+  {
+    // at most 3 distinct tuples in memory, so the counts of the 10 keys are spilled and merged
+    CountEach countEach = new CountEach("flatten", "3");
+
+    for (int i=0; i<100; i++)
+    {
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      bag.add(TupleFactory.getInstance().newTuple("k" + ((i * 7) % 10)));
+      countEach.accumulate(TupleFactory.getInstance().newTuple(bag));
+    }
+
+    DataBag output = countEach.getValue();
+    countEach.cleanup();
+
+    Assert.assertEquals(10, output.size());
+    Set<String> found = new HashSet<String>();
+    for (Tuple t : output)
+    {
+      found.add((String)t.get(0));
+      Assert.assertEquals(10, t.get(1));
+    }
+    Assert.assertEquals(10, found.size());
+    Assert.assertEquals(0, countEach.getValue().size());
+  }
+
+  /**
+
+
+  define CountEach datafu.pig.bags.CountEach('flatten', '2');
+
+  data = LOAD 'input' AS (key:chararray, v:chararray);
+
+  grouped = GROUP data BY key;
+
+  counted = FOREACH grouped GENERATE group, CountEach(data.v) as counted;
+
+  data2 = FOREACH counted {
+    ordered = ORDER counted BY count DESC, v ASC;
+    GENERATE group, ordered;
+  }
+
+  STORE data2 INTO 'output';
+
+   */
+  @Multiline
+  private String countEachAlgebraicTest;
+
+  @Test
+  public void countEachAlgebraicTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(countEachAlgebraicTest);
+
+    writeLinesToFile("input",
+                     "1\tA",
+                     "1\tB",
+                     "1\tA",
+                     "1\tC",
+                     "1\tD",
+                     "1\tA",
+                     "1\tB",
+                     "2\tE",
+                     "2\tE");
+
+    test.runScript();
+
+    assertOutput(test, "data2",
+        "(1,{(A,3),(B,2),(C,1),(D,1)})",
+        "(2,{(E,2)})");
+  }
+
   /**
 
 
@@ -1159,6 +1251,39 @@ public class BagTests extends PigTests
   /**
 
 
+  define BagLeftOuterJoin datafu.pig.bags.BagLeftOuterJoin('2');
+
+  data = LOAD 'input' AS (outer_key:chararray, bag1:bag{T:tuple(k:chararray,v:chararray)}, bag2:bag{T:tuple(k:chararray,v:chararray)}, bag3:bag{T:tuple(k3:chararray,v3:chararray)});
+
+  data2 = FOREACH data GENERATE
+    outer_key,
+    BagLeftOuterJoin(bag1, 'k', bag2, 'k', bag3, 'k3') as joined1,
+    BagLeftOuterJoin(bag1, 'k', bag3, 'k3', bag2, 'k') as joined2;
+
+  STORE data2 INTO 'output';
+
+   */
+  @Multiline
+  private String bagLeftOuterJoinPartitionedTest;
+
+  @Test
+  public void bagLeftOuterJoinPartitionedTest() throws Exception
+  {
+    // the limit of 2 tuples in memory splits the join into partitions by key, which changes the order of the output
+    PigTest test = createPigTestFromString(bagLeftOuterJoinPartitionedTest);
+
+    writeLinesToFile("input",
+                     "1\t{(K1,A1),(K2,B1),(K3,C1)}\t{(K1,A2),(K2,B2),(K2,B22)}\t{(K1,A3),(K3,C3),(K4,D3)}");
+
+    test.runScript();
+
+    assertOutput(test, "data2",
+        "(1,{(K3,C1,,,K3,C3),(K1,A1,K1,A2,K1,A3),(K2,B1,K2,B2,,),(K2,B1,K2,B22,,)},{(K3,C1,K3,C3,,),(K1,A1,K1,A3,K1,A2),(K2,B1,,,K2,B2),(K2,B1,,,K2,B22)})");
+  }
+
+  /**
+
+
   define BagUnion datafu.pig.bags.BagConcat();
 
   data = LOAD 'input' AS (input_bag: bag {T: tuple(inner_bag: bag {T2: tuple(k: int, v: chararray)})});
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import org.testng.annotations.Test;
 
@@ -81,6 +82,130 @@ public class PageRankImplTests
     validateExpectedRanks(graph, nodeIdsMap, expectedRanksMap);
   }
   
+  @Test
+  public void wikipediaGraphDiskCacheMultiThreadedTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting wikipediaGraphDiskCacheMultiThreadedTest");
+    
+    datafu.pig.linkanalysis.PageRankImpl graph = new datafu.pig.linkanalysis.PageRankImpl();
+    
+    String[] edges = getWikiExampleEdges();
+    
+    graph.enableEdgeDiskCaching();
+    graph.setEdgeCachingThreshold(5);
+    graph.setThreadCount(3);
+    
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(graph, edges);
+    
+    assert graph.isUsingEdgeDiskCache() : "Expected disk cache to be used";
+    
+    graph.enableDanglingNodeHandling();
+    
+    performIterations(graph, 150, 1e-18f);
+    
+    String[] expectedRanks = getWikiExampleExpectedRanks();
+    
+    Map<String,Float> expectedRanksMap = parseExpectedRanks(expectedRanks);
+    
+    validateExpectedRanks(graph, nodeIdsMap, expectedRanksMap);
+    
+    graph.clear();
+  }
+  
+  @Test
+  public void wikipediaGraphMultiThreadedTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting wikipediaGraphMultiThreadedTest");
+    
+    datafu.pig.linkanalysis.PageRankImpl graph = new datafu.pig.linkanalysis.PageRankImpl();
+    datafu.pig.linkanalysis.PageRankImpl singleThreadedGraph = new datafu.pig.linkanalysis.PageRankImpl();
+    
+    String[] edges = getWikiExampleEdges();
+    
+    graph.setThreadCount(4);
+    
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(graph, edges);
+    loadGraphFromEdgeList(singleThreadedGraph, edges);
+    
+    graph.enableDanglingNodeHandling();
+    singleThreadedGraph.enableDanglingNodeHandling();
+    
+    performIterations(graph, 150, 1e-18f);
+    performIterations(singleThreadedGraph, 150, 1e-18f);
+    
+    String[] expectedRanks = getWikiExampleExpectedRanks();
+    
+    Map<String,Float> expectedRanksMap = parseExpectedRanks(expectedRanks);
+    
+    validateExpectedRanks(graph, nodeIdsMap, expectedRanksMap);
+    
+    for (Map.Entry<String,Integer> e : nodeIdsMap.entrySet())
+    {
+      float rank = graph.getNodeRank(e.getValue());
+      float singleThreadedRank = singleThreadedGraph.getNodeRank(e.getValue());
+      assert Math.abs(rank - singleThreadedRank) < 1e-6 : String.format("Rank for %s differs from single threaded rank", e.getKey());
+    }
+    
+    graph.clear();
+  }
+  
+  @Test
+  public void wikipediaGraphDeltaUpdatesTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting wikipediaGraphDeltaUpdatesTest");
+    
+    datafu.pig.linkanalysis.PageRankImpl graph = new datafu.pig.linkanalysis.PageRankImpl();
+    
+    String[] edges = getWikiExampleEdges();
+    
+    graph.enableDeltaUpdates(1e-7f);
+    
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(graph, edges);
+    
+    graph.enableDanglingNodeHandling();
+    
+    performIterations(graph, 150, 1e-18f);
+    
+    System.out.println(String.format("Last iteration: %d active nodes, %d active edges", graph.getActiveNodeCount(), graph.getActiveEdgeCount()));
+    
+    assert graph.getActiveEdgeCount() < graph.edgeCount() : "Expected settled nodes to be skipped";
+    
+    String[] expectedRanks = getWikiExampleExpectedRanks();
+    
+    Map<String,Float> expectedRanksMap = parseExpectedRanks(expectedRanks);
+    
+    validateExpectedRanks(graph, nodeIdsMap, expectedRanksMap);
+    
+    graph.clear();
+  }
+  
+  @Test
+  public void wikipediaGraphDeltaUpdatesMultiThreadedTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting wikipediaGraphDeltaUpdatesMultiThreadedTest");
+    
+    datafu.pig.linkanalysis.PageRankImpl graph = new datafu.pig.linkanalysis.PageRankImpl();
+    
+    String[] edges = getWikiExampleEdges();
+    
+    graph.enableDeltaUpdates(1e-7f);
+    graph.setThreadCount(3);
+    
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(graph, edges);
+    
+    graph.enableDanglingNodeHandling();
+    
+    performIterations(graph, 150, 1e-18f);
+    
+    String[] expectedRanks = getWikiExampleExpectedRanks();
+    
+    Map<String,Float> expectedRanksMap = parseExpectedRanks(expectedRanks);
+    
+    validateExpectedRanks(graph, nodeIdsMap, expectedRanksMap);
+    
+    graph.clear();
+  }
+  
   @Test(groups="perf")
   public void hubAndSpokeInMemoryTest() throws Exception {
     System.out.println();
@@ -120,6 +245,75 @@ public class PageRankImplTests
     // no need to validate, this is just a perf test for runtime comparison
   }
   
+  @Test(groups="perf")
+  public void edgeThroughputInMemoryTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting edgeThroughputInMemoryTest");
+    
+    datafu.pig.linkanalysis.PageRankImpl graph = new datafu.pig.linkanalysis.PageRankImpl();
+    
+    loadRandomGraph(graph, 200000, 20);
+    
+    measureEdgeThroughput(graph, 10);
+    
+    graph.clear();
+  }
+  
+  @Test(groups="perf")
+  public void edgeThroughputDiskCacheTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting edgeThroughputDiskCacheTest");
+    
+    datafu.pig.linkanalysis.PageRankImpl graph = new datafu.pig.linkanalysis.PageRankImpl();
+    
+    graph.enableEdgeDiskCaching();
+    graph.setEdgeCachingThreshold(5);
+    
+    loadRandomGraph(graph, 200000, 20);
+    
+    assert graph.isUsingEdgeDiskCache() : "Expected disk cache to be used";
+    
+    measureEdgeThroughput(graph, 10);
+    
+    graph.clear();
+  }
+  
+  private void loadRandomGraph(datafu.pig.linkanalysis.PageRankImpl graph, int nodeCount, int edgesPerNode) throws IOException
+  {
+    Random random = new Random(42);
+    
+    for (int sourceId=0; sourceId<nodeCount; sourceId++)
+    {
+      ArrayList<Map<String,Object>> nodeEdges = new ArrayList<Map<String,Object>>(edgesPerNode);
+      for (int i=0; i<edgesPerNode; i++)
+      {
+        Map<String,Object> edgeMap = new HashMap<String,Object>();
+        edgeMap.put("weight", 1.0);
+        edgeMap.put("dest", random.nextInt(nodeCount));
+        nodeEdges.add(edgeMap);
+      }
+      graph.addNode(sourceId, nodeEdges);
+    }
+  }
+  
+  private void measureEdgeThroughput(datafu.pig.linkanalysis.PageRankImpl graph, int iters) throws IOException
+  {
+    System.out.println(String.format("Nodes: %d, Edges: %d", graph.nodeCount(), graph.edgeCount()));
+    
+    long startTime = System.nanoTime();
+    graph.init();
+    double seconds = (System.nanoTime() - startTime)/1.0e9;
+    System.out.println(String.format("Init: %.0f edges/second", graph.edgeCount()/seconds));
+    
+    startTime = System.nanoTime();
+    for (int i=0; i<iters; i++)
+    {
+      graph.nextIteration();
+    }
+    seconds = (System.nanoTime() - startTime)/1.0e9;
+    System.out.println(String.format("Iterations: %.0f edges/second", iters*graph.edgeCount()/seconds));
+  }
+  
   private String[] getHubAndSpokeEdges()
   {
     int count = 50000;
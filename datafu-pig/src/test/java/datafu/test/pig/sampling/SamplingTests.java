@@ -25,6 +25,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import junit.framework.Assert;
@@ -40,6 +41,7 @@ import org.testng.annotations.Test;
 
 import datafu.pig.sampling.ReservoirSample;
 import datafu.pig.sampling.SampleByKey;
+import datafu.pig.sampling.StratifiedReservoirSample;
 import datafu.pig.sampling.WeightedSample;
 import datafu.test.pig.PigTests;
 
@@ -140,6 +142,65 @@ public class SamplingTests extends PigTests
     }
   }
 
+  @Test
+  public void weightedSampleSkewedExecTest() throws IOException
+  {
+    WeightedSample sampler = new WeightedSample("42");
+
+    // one heavy item among many light ones, including non-positive scores
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<1000; i++)
+    {
+      Tuple t = TupleFactory.getInstance().newTuple(2);
+      t.set(0, i);
+      t.set(1, i == 500 ? 1000000 : (i % 3) - 1);
+      bag.add(t);
+    }
+
+    Tuple input = TupleFactory.getInstance().newTuple(3);
+    input.set(0, bag);
+    input.set(1, 1);
+    input.set(2, 1000);
+
+    DataBag result = sampler.exec(input);
+
+    Assert.assertEquals(1000, result.size());
+    Assert.assertEquals(500, result.iterator().next().get(0));
+
+    Set<Integer> found = new HashSet<Integer>();
+    for (Tuple t : result)
+    {
+      Integer i = (Integer)t.get(0);
+      Assert.assertFalse(String.format("Found duplicate of %d",i), found.contains(i));
+      found.add(i);
+    }
+  }
+
+  @Test(groups="perf")
+  public void weightedSamplePerfTest() throws IOException
+  {
+    WeightedSample sampler = new WeightedSample("1");
+
+    int n = 1000000;
+    int k = 10000;
+
+    Random random = new Random(1);
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<n; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple(Arrays.<Object>asList(i, random.nextDouble()*100.0)));
+    }
+
+    Tuple input = TupleFactory.getInstance().newTuple(Arrays.<Object>asList(bag, 1, k));
+
+    long startTime = System.nanoTime();
+    DataBag result = sampler.exec(input);
+    double millis = (System.nanoTime() - startTime)/1.0e6;
+
+    Assert.assertEquals(k, result.size());
+    System.out.println(String.format("WeightedSample: sampled %d of %d in %.1f ms", k, n, millis));
+  }
+
   /**
 
 
@@ -246,8 +307,42 @@ public class SamplingTests extends PigTests
   @Test
   public void sampleByKeyExecTest() throws Exception
   {
-    SampleByKey sampler = new SampleByKey("0.10", "thesalt");
+    assertSamplesByKey(new SampleByKey("0.10", "thesalt"));
+  }
 
+  @Test
+  public void sampleByKeyFastExecTest() throws Exception
+  {
+    assertSamplesByKey(new SampleByKey("0.10", "thesalt", "fast"));
+  }
+
+  @Test
+  public void sampleByKeySelectedKeysTest() throws Exception
+  {
+    // expected keys were recorded from the original sha1 implementation, so the selection must not change
+    assertSelectedKeys(new SampleByKey("0.5", "salt"), false,
+                       2,5,6,7,10,14,15,16,21,25,27,29,30,31,36,39);
+    assertSelectedKeys(new SampleByKey("0.2", "salt", "sha1"), true,
+                       10,12,14,21,23,28,29,32,35,36,38);
+  }
+
+  private void assertSelectedKeys(SampleByKey sampler, boolean compositeKey, Integer... expected) throws Exception
+  {
+    Set<Integer> selected = new HashSet<Integer>();
+    for (int i=0; i<40; i++)
+    {
+      Tuple t = compositeKey ? TupleFactory.getInstance().newTuple(Arrays.<Object>asList("key" + i, i))
+                             : TupleFactory.getInstance().newTuple((Object)("key" + i));
+      if (sampler.exec(t))
+      {
+        selected.add(i);
+      }
+    }
+    Assert.assertEquals(new HashSet<Integer>(Arrays.asList(expected)), selected);
+  }
+
+  private void assertSamplesByKey(SampleByKey sampler) throws Exception
+  {
     Map<Integer,Integer> valuesPerKey = new HashMap<Integer,Integer>();
 
     // 10,000 keys total
@@ -520,4 +615,203 @@ public class SamplingTests extends PigTests
       found.add(i);
     }
   }
+
+  @Test
+  public void reservoirSampleUniformTest() throws IOException
+  {
+    // accumulate in several chunks so the reservoir fills in the first and skips through the rest
+    int trials = 2000;
+    int[] counts = new int[100];
+    for (int trial=0; trial<trials; trial++)
+    {
+      ReservoirSample sampler = new ReservoirSample("10");
+      for (int chunk=0; chunk<4; chunk++)
+      {
+        DataBag bag = BagFactory.getInstance().newDefaultBag();
+        for (int i=chunk*25; i<(chunk+1)*25; i++)
+        {
+          bag.add(TupleFactory.getInstance().newTuple((Object)i));
+        }
+        sampler.accumulate(TupleFactory.getInstance().newTuple(bag));
+      }
+
+      DataBag result = sampler.getValue();
+      Assert.assertEquals(10, result.size());
+      for (Tuple t : result)
+      {
+        counts[(Integer)t.get(0)]++;
+      }
+    }
+
+    // each item should be chosen in about a tenth of the trials, regardless of its position
+    for (int i=0; i<100; i++)
+    {
+      Assert.assertTrue(String.format("Item %d chosen %d times", i, counts[i]), Math.abs(counts[i] - trials/10) < 80);
+    }
+  }
+
+  @Test(groups="perf")
+  public void reservoirSamplePerfTest() throws IOException
+  {
+    int batchSize = 1000000;
+    int batches = 10;
+    int n = batchSize*batches;
+    int k = 1000;
+
+    // a bag of 1M tuples accumulated several times, so the input does not fill the heap
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<batchSize; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)i));
+    }
+    Tuple input = TupleFactory.getInstance().newTuple(bag);
+
+    ReservoirSample sampler = new ReservoirSample(Integer.toString(k));
+    long startTime = System.nanoTime();
+    for (int i=0; i<batches; i++)
+    {
+      sampler.accumulate(input);
+    }
+    DataBag result = sampler.getValue();
+    double seconds = (System.nanoTime() - startTime)/1.0e9;
+
+    Assert.assertEquals(k, result.size());
+    System.out.println(String.format("ReservoirSample: %.0f tuples/second", n/seconds));
+  }
+
+  /**
+
+
+  define StratifiedSample datafu.pig.sampling.StratifiedReservoirSample('2','0');
+
+  data = LOAD 'input' AS (stratum:chararray, v:int);
+
+  sampled = FOREACH (GROUP data ALL) GENERATE FLATTEN(StratifiedSample(data));
+
+  counts = FOREACH (GROUP sampled BY stratum) GENERATE group, COUNT(sampled);
+
+  STORE counts INTO 'output';
+   */
+  @Multiline
+  private String stratifiedReservoirSampleTest;
+
+  @Test
+  public void stratifiedReservoirSampleTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(stratifiedReservoirSampleTest);
+
+    writeLinesToFile("input",
+                     "A\t1","A\t2","A\t3","A\t4",
+                     "B\t1","B\t2",
+                     "C\t1");
+
+    test.runScript();
+
+    assertOutput(test, "counts",
+                 "(A,2)","(B,2)","(C,1)");
+  }
+
+  @Test
+  public void stratifiedReservoirSampleAlgebraicTest() throws IOException
+  {
+    // a small cap so the intermediate step writes out partial reservoirs
+    StratifiedReservoirSample.Initial initialSampler = new StratifiedReservoirSample.Initial("10","0","15");
+    StratifiedReservoirSample.Intermediate intermediateSampler = new StratifiedReservoirSample.Intermediate("10","0","15");
+    StratifiedReservoirSample.Final finalSampler = new StratifiedReservoirSample.Final("10","0","15");
+
+    // 5 strata of 100 items each, split across 4 map tasks
+    DataBag intermediateBag = BagFactory.getInstance().newDefaultBag();
+    for (int task=0; task<4; task++)
+    {
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      for (int i=task; i<500; i+=4)
+      {
+        bag.add(TupleFactory.getInstance().newTuple(Arrays.<Object>asList(i % 5, i)));
+      }
+      intermediateBag.add(initialSampler.exec(TupleFactory.getInstance().newTuple(bag)));
+    }
+
+    Tuple intermediateTuple = intermediateSampler.exec(TupleFactory.getInstance().newTuple(intermediateBag));
+    intermediateBag = BagFactory.getInstance().newDefaultBag(Arrays.asList(intermediateTuple));
+    DataBag result = finalSampler.exec(TupleFactory.getInstance().newTuple(intermediateBag));
+
+    Assert.assertEquals(50, result.size());
+
+    int[] countsPerStratum = new int[5];
+    Set<Integer> found = new HashSet<Integer>();
+    for (Tuple t : result)
+    {
+      Integer i = (Integer)t.get(1);
+      Assert.assertEquals(i % 5, ((Integer)t.get(0)).intValue());
+      Assert.assertFalse(String.format("Found duplicate of %d",i), found.contains(i));
+      found.add(i);
+      countsPerStratum[(Integer)t.get(0)]++;
+    }
+
+    for (int count : countsPerStratum)
+    {
+      Assert.assertEquals(10, count);
+    }
+  }
+
+  @Test
+  public void stratifiedReservoirSampleAccumulateCapTest() throws IOException
+  {
+    // a small cap so the reservoirs are written out to the sorted overflow bag while accumulating
+    StratifiedReservoirSample sampler = new StratifiedReservoirSample("10","0","15");
+
+    // 5 strata of 100 items each, in several batches
+    for (int batch=0; batch<4; batch++)
+    {
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      for (int i=batch; i<500; i+=4)
+      {
+        bag.add(TupleFactory.getInstance().newTuple(Arrays.<Object>asList(i % 5, i)));
+      }
+      sampler.accumulate(TupleFactory.getInstance().newTuple(bag));
+    }
+    DataBag result = sampler.getValue();
+    sampler.cleanup();
+
+    Assert.assertEquals(50, result.size());
+
+    int[] countsPerStratum = new int[5];
+    Set<Integer> found = new HashSet<Integer>();
+    for (Tuple t : result)
+    {
+      Integer i = (Integer)t.get(1);
+      Assert.assertEquals(i % 5, ((Integer)t.get(0)).intValue());
+      Assert.assertFalse(String.format("Found duplicate of %d",i), found.contains(i));
+      found.add(i);
+      countsPerStratum[(Integer)t.get(0)]++;
+    }
+
+    for (int count : countsPerStratum)
+    {
+      Assert.assertEquals(10, count);
+    }
+  }
+
+  @Test
+  public void stratifiedReservoirSampleSingleTupleTest() throws IOException
+  {
+    StratifiedReservoirSample.Initial initialSampler = new StratifiedReservoirSample.Initial("10","0","15");
+    StratifiedReservoirSample.Final finalSampler = new StratifiedReservoirSample.Final("10","0","15");
+
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    bag.add(TupleFactory.getInstance().newTuple(Arrays.<Object>asList(3, 7)));
+    Tuple intermediateTuple = initialSampler.exec(TupleFactory.getInstance().newTuple(bag));
+    Assert.assertEquals(1, ((DataBag)intermediateTuple.get(0)).size());
+
+    DataBag intermediateBag = BagFactory.getInstance().newDefaultBag(Arrays.asList(intermediateTuple));
+    DataBag result = finalSampler.exec(TupleFactory.getInstance().newTuple(intermediateBag));
+    Assert.assertEquals(1, result.size());
+    Assert.assertEquals(7, result.iterator().next().get(1));
+  }
+
+  @Test(expectedExceptions=IllegalArgumentException.class)
+  public void stratifiedReservoirSampleInvalidMaxTuplesTest()
+  {
+    new StratifiedReservoirSample("10","0","0");
+  }
 }
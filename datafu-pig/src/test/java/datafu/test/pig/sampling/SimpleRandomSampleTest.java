@@ -19,7 +19,19 @@
 
 package datafu.test.pig.sampling;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.adrianwalker.multilinestring.Multiline;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.pigunit.PigTest;
 import org.testng.annotations.Test;
 
@@ -225,6 +237,51 @@ public class SimpleRandomSampleTest extends PigTests
                  "(A8,1)",
                  "(A9,2)");
   }
-  
-  
+
+  @Test(groups="perf")
+  public void simpleRandomSampleMultiThreadedPerfTest() throws Exception
+  {
+    final int bagSize = 100000;
+    final int bagsPerThread = 50;
+
+    final DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i = 0; i < bagSize; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)i));
+    }
+
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= maxThreads; threads *= 2)
+    {
+      // one UDF instance per thread, as Pig would create
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      long startTime = System.nanoTime();
+      for (int t = 0; t < threads; t++)
+      {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception
+          {
+            SimpleRandomSample.Initial initial = new SimpleRandomSample.Initial();
+            Tuple input = TupleFactory.getInstance().newTuple(Arrays.<Object>asList(bag, 0.01));
+            for (int i = 0; i < bagsPerThread; i++)
+            {
+              initial.exec(input);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures)
+      {
+        future.get();
+      }
+      double seconds = (System.nanoTime() - startTime) / 1.0e9;
+      executor.shutdown();
+
+      System.out.println(String.format("SimpleRandomSample.Initial with %d threads: %.0f items/second",
+                                       threads, (double)threads * bagsPerThread * bagSize / seconds));
+    }
+  }
 }
@@ -21,12 +21,15 @@ package datafu.test.pig.sessions;
 
 import static org.testng.Assert.*;
 
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.UUID;
 
 import junit.framework.Assert;
 
@@ -34,13 +37,17 @@ import org.adrianwalker.multilinestring.Multiline;
 import org.apache.commons.lang.StringUtils;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.apache.pig.pigunit.PigTest;
 import org.joda.time.DateTime;
 import org.testng.annotations.Test;
 
+import datafu.pig.sessions.SessionAggregator;
 import datafu.pig.sessions.SessionCount;
+import datafu.pig.sessions.SessionSummary;
 import datafu.pig.sessions.Sessionize;
 import datafu.test.pig.PigTests;
 
@@ -284,6 +291,186 @@ public class SessionTests extends PigTests
     Assert.assertEquals(0,sessionize.getValue().size());
   }
   
+  @Test
+  public void sessionizeIdSchemeTest() throws Exception
+  {
+    for (String scheme : new String[] {"counter", "uuid"})
+    {
+      Sessionize sessionize = new Sessionize("30m", scheme);
+      Tuple input = TupleFactory.getInstance().newTuple(1);
+      DataBag inputBag = BagFactory.getInstance().newDefaultBag();
+      input.set(0,inputBag);
+      
+      String[] times = {"2010-01-01T01:00:00Z", "2010-01-01T01:00:30.500Z", "2010-01-01T01:20:00Z", 
+                        "2010-01-01T01:50:01Z", "2010-01-01T01:50:59Z", "2010-01-01T03:30:00+01:00"};
+      for (String time : times)
+      {
+        Tuple item = TupleFactory.getInstance().newTuple(1);
+        item.set(0, time);
+        inputBag.add(item);
+      }
+      
+      List<Tuple> result = toList(sessionize.exec(input));
+      Assert.assertEquals(6, result.size());
+      
+      // sessions are rows 0-2, rows 3-4 and row 5
+      Assert.assertEquals(result.get(0).get(1), result.get(1).get(1));
+      Assert.assertEquals(result.get(0).get(1), result.get(2).get(1));
+      Assert.assertEquals(result.get(3).get(1), result.get(4).get(1));
+      Assert.assertFalse(result.get(2).get(1).equals(result.get(3).get(1)));
+      Assert.assertFalse(result.get(4).get(1).equals(result.get(5).get(1)));
+      Assert.assertFalse(result.get(0).get(1).equals(result.get(5).get(1)));
+      
+      // ids are GUIDs and differ between bags
+      UUID.fromString((String)result.get(0).get(1));
+      String first = (String)result.get(0).get(1);
+      result = toList(sessionize.exec(input));
+      Assert.assertFalse(first.equals(result.get(0).get(1)));
+    }
+  }
+  
+  @Test(expectedExceptions=IOException.class)
+  public void sessionizeUnsortedTest() throws Exception
+  {
+    Sessionize sessionize = new Sessionize("30m");
+    Tuple input = TupleFactory.getInstance().newTuple(1);
+    DataBag inputBag = BagFactory.getInstance().newDefaultBag();
+    input.set(0,inputBag);
+    
+    for (String time : new String[] {"2010-01-01T01:00:30Z", "2010-01-01T01:00:10Z"})
+    {
+      Tuple item = TupleFactory.getInstance().newTuple(1);
+      item.set(0, time);
+      inputBag.add(item);
+    }
+    
+    sessionize.accumulate(input);
+  }
+  
+  /**
+   * Counts the events of a session where a field is null, to test aggregators given by class name.
+   */
+  public static class CountNulls implements SessionAggregator
+  {
+    private final int field;
+    private long count;
+    
+    public CountNulls(String field)
+    {
+      this.field = Integer.parseInt(field);
+    }
+
+    @Override
+    public void reset()
+    {
+      count = 0;
+    }
+
+    @Override
+    public void add(Tuple event) throws IOException
+    {
+      if (event.get(field) == null) count++;
+    }
+
+    @Override
+    public Object getValue()
+    {
+      return count;
+    }
+
+    @Override
+    public Schema.FieldSchema outputSchema(Schema inputTupleSchema)
+    {
+      return new Schema.FieldSchema("null_count", DataType.LONG);
+    }
+  }
+  
+  @Test
+  public void sessionSummaryExecTest() throws Exception
+  {
+    SessionSummary summary = new SessionSummary("30m", "sum(1)", "max(1)", "first(2)", "last(2)", 
+                                                CountNulls.class.getName() + "(2)");
+    Tuple input = TupleFactory.getInstance().newTuple(1);
+    DataBag inputBag = BagFactory.getInstance().newDefaultBag();
+    input.set(0,inputBag);
+    
+    inputBag.add(TupleFactory.getInstance().newTuple(Arrays.asList("2010-01-01T01:00:00Z", 1, "a")));
+    inputBag.add(TupleFactory.getInstance().newTuple(Arrays.asList("2010-01-01T01:10:00Z", 2, null)));
+    inputBag.add(TupleFactory.getInstance().newTuple(Arrays.asList("2010-01-01T01:50:00Z", 4, "c")));
+    
+    long start = new DateTime("2010-01-01T01:00:00Z").getMillis();
+    
+    for (int c=0; c<2; c++)
+    {
+      List<Tuple> result = toList(summary.exec(input));
+      Assert.assertEquals(2, result.size());
+      
+      Tuple first = result.get(0);
+      Assert.assertEquals(10, first.size());
+      Assert.assertEquals(start, first.get(1));
+      Assert.assertEquals(start + 600000L, first.get(2));
+      Assert.assertEquals(600000L, first.get(3));
+      Assert.assertEquals(2L, first.get(4));
+      Assert.assertEquals(3.0, first.get(5));
+      Assert.assertEquals(2, first.get(6));
+      Assert.assertEquals("a", first.get(7));
+      Assert.assertNull(first.get(8));
+      Assert.assertEquals(1L, first.get(9));
+      
+      Tuple second = result.get(1);
+      Assert.assertEquals(start + 3000000L, second.get(1));
+      Assert.assertEquals(0L, second.get(3));
+      Assert.assertEquals(1L, second.get(4));
+      Assert.assertEquals(4.0, second.get(5));
+      Assert.assertEquals("c", second.get(7));
+      Assert.assertEquals(0L, second.get(9));
+      
+      Assert.assertFalse(first.get(0).equals(second.get(0)));
+    }
+  }
+  
+  /**
+  
+
+  define SessionSummary datafu.pig.sessions.SessionSummary('$TIME_WINDOW', 'sum(2)');
+  
+  views = LOAD 'input' AS (time:chararray, user_id:int, value:int);
+  
+  views_grouped = GROUP views BY user_id;
+  sessions = FOREACH views_grouped {
+    views = ORDER views BY time;
+    GENERATE group as user_id, FLATTEN(SessionSummary(views));
+  }
+  
+  summaries = FOREACH sessions GENERATE user_id, duration, event_count, sum_value;
+  
+  STORE summaries INTO 'output';
+   */
+  @Multiline
+  private String sessionSummaryTest;
+  
+  @Test
+  public void sessionSummaryTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(sessionSummaryTest,
+                                           "TIME_WINDOW=10m");
+    
+    this.writeLinesToFile("input", 
+                          "2010-01-01T01:00:00Z\t1\t10",
+                          "2010-01-01T01:01:00Z\t1\t20",
+                          "2010-01-01T01:02:00Z\t1\t30",
+                          "2010-01-01T01:30:00Z\t1\t40",
+                          "2010-01-01T01:05:00Z\t2\t5",
+                          "2010-01-01T01:09:30Z\t2\t5");
+    
+    test.runScript();
+    
+    this.assertOutput(test, "summaries",
+                      "(1,120000,3,60.0)",
+                      "(1,0,1,40.0)",
+                      "(2,270000,2,10.0)");
+  }
+  
   private List<Tuple> toList(DataBag bag)
   {
     List<Tuple> result = new ArrayList<Tuple>();
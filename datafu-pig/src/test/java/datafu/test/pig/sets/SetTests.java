@@ -19,7 +19,13 @@
 
 package datafu.test.pig.sets;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.adrianwalker.multilinestring.Multiline;
 import org.apache.pig.data.BagFactory;
@@ -30,6 +36,9 @@ import org.apache.pig.pigunit.PigTest;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import datafu.pig.sets.HashSetDifference;
+import datafu.pig.sets.HashSetIntersect;
+import datafu.pig.sets.SetDifference;
 import datafu.pig.sets.SetIntersect;
 import datafu.test.pig.PigTests;
 
@@ -327,4 +336,189 @@ public class SetTests extends PigTests
                  "({})",
                  "({})");
   }
+
+  @Test
+  public void hashSetIntersectTest() throws Exception
+  {
+    // unsorted bags, with duplicates
+    Tuple input = TupleFactory.getInstance().newTuple(Arrays.<Object>asList(
+        bagOf(6,1,4,3,3,2,5), bagOf(8,4,2,0,4,5), bagOf(5,2,9,4,2)));
+
+    // the second limit forces the partitioned path
+    for (HashSetIntersect intersect : Arrays.asList(new HashSetIntersect(), new HashSetIntersect("2")))
+    {
+      Assert.assertEquals(valuesOf(intersect.exec(input)), new HashSet<Integer>(Arrays.asList(2,4,5)));
+    }
+
+    Tuple withEmpty = TupleFactory.getInstance().newTuple(Arrays.<Object>asList(bagOf(1,2), bagOf()));
+    Assert.assertEquals(new HashSetIntersect().exec(withEmpty).size(), 0);
+  }
+
+  @Test
+  public void hashSetDifferenceTest() throws Exception
+  {
+    // unsorted bags, with duplicates
+    Tuple input = TupleFactory.getInstance().newTuple(Arrays.<Object>asList(
+        bagOf(6,1,4,3,3,2,5,1), bagOf(4,3), null, bagOf(9,6)));
+
+    // the second limit forces the partitioned path
+    for (HashSetDifference difference : Arrays.asList(new HashSetDifference(), new HashSetDifference("2")))
+    {
+      Assert.assertEquals(valuesOf(difference.exec(input)), new HashSet<Integer>(Arrays.asList(1,2,5)));
+    }
+  }
+
+  @Test
+  public void setIntersectManyBagsTest() throws Exception
+  {
+    // sorted bags with duplicates, merged through a tree with byes for 3 and 5 bags
+    Tuple three = TupleFactory.getInstance().newTuple(Arrays.<Object>asList(
+        bagOf(1,2,2,3,5,8,8,9), bagOf(2,3,3,5,8), bagOf(0,2,5,5,8,8,10)));
+    Assert.assertEquals(listOf(new SetIntersect().exec(three)), Arrays.asList(2,5,8));
+
+    Tuple five = TupleFactory.getInstance().newTuple(Arrays.<Object>asList(
+        bagOf(1,2,2,3,5,8,8,9), bagOf(2,3,3,5,8), bagOf(0,2,5,5,8,8,10), bagOf(2,2,2,8), bagOf(2,4,6,8)));
+    Assert.assertEquals(listOf(new SetIntersect().exec(five)), Arrays.asList(2,8));
+
+    Tuple withEmpty = TupleFactory.getInstance().newTuple(Arrays.<Object>asList(
+        bagOf(1,2,3), bagOf(2,3), bagOf(), bagOf(2), bagOf(2,3)));
+    Assert.assertEquals(new SetIntersect().exec(withEmpty).size(), 0);
+  }
+
+  @Test
+  public void setDifferenceManyBagsTest() throws Exception
+  {
+    // sorted bags with duplicates, merged through a tree with byes for 3 and 5 bags
+    Tuple three = TupleFactory.getInstance().newTuple(Arrays.<Object>asList(
+        bagOf(1,2,2,3,5,8,8,9), bagOf(2,3,3), bagOf(0,5,5,10)));
+    Assert.assertEquals(listOf(new SetDifference().exec(three)), Arrays.asList(1,8,9));
+
+    // empty and null bags among the others are skipped
+    Tuple five = TupleFactory.getInstance().newTuple(Arrays.<Object>asList(
+        bagOf(1,2,2,3,5,8,8,9,11,11), bagOf(), bagOf(2,3,3), null, bagOf(9,9,12)));
+    Assert.assertEquals(listOf(new SetDifference().exec(five)), Arrays.asList(1,5,8,11));
+
+    Tuple emptyFirst = TupleFactory.getInstance().newTuple(Arrays.<Object>asList(
+        bagOf(), bagOf(1,2), bagOf(3)));
+    Assert.assertEquals(new SetDifference().exec(emptyFirst).size(), 0);
+  }
+
+  @Test
+  public void setOperationsRandomBagsTest() throws Exception
+  {
+    // compare against sets for every number of bags up to 9, so every shape of merge tree is covered,
+    // with short bags running out early and many duplicates
+    Random random = new Random(42);
+    SetIntersect intersect = new SetIntersect();
+    SetDifference difference = new SetDifference();
+    for (int k=2; k<=9; k++)
+    {
+      for (int trial=0; trial<50; trial++)
+      {
+        Tuple input = TupleFactory.getInstance().newTuple(k);
+        Set<Integer> expectedIntersection = null;
+        Set<Integer> expectedDifference = null;
+        for (int i=0; i<k; i++)
+        {
+          int[] values = new int[1 + random.nextInt(20)];
+          for (int j=0; j<values.length; j++)
+          {
+            values[j] = random.nextInt(10);
+          }
+          Arrays.sort(values);
+          input.set(i, bagOf(values));
+
+          Set<Integer> set = new TreeSet<Integer>();
+          for (int value : values)
+          {
+            set.add(value);
+          }
+          if (i == 0)
+          {
+            expectedIntersection = new TreeSet<Integer>(set);
+            expectedDifference = new TreeSet<Integer>(set);
+          }
+          else
+          {
+            expectedIntersection.retainAll(set);
+            expectedDifference.removeAll(set);
+          }
+        }
+
+        Assert.assertEquals(listOf(intersect.exec(input)), new ArrayList<Integer>(expectedIntersection), input.toString());
+        Assert.assertEquals(listOf(difference.exec(input)), new ArrayList<Integer>(expectedDifference), input.toString());
+      }
+    }
+  }
+
+  private static DataBag bagOf(int... values)
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int value : values)
+    {
+      // cast so the value is the field, rather than the size of the tuple
+      bag.add(TupleFactory.getInstance().newTuple((Object)value));
+    }
+    return bag;
+  }
+
+  private static List<Integer> listOf(DataBag bag) throws Exception
+  {
+    List<Integer> values = new ArrayList<Integer>();
+    for (Tuple t : bag)
+    {
+      values.add((Integer)t.get(0));
+    }
+    return values;
+  }
+
+  private static Set<Integer> valuesOf(DataBag bag) throws Exception
+  {
+    Set<Integer> values = new HashSet<Integer>();
+    for (Tuple t : bag)
+    {
+      Assert.assertTrue(values.add((Integer)t.get(0)), "duplicate " + t);
+    }
+    return values;
+  }
+
+  @Test(groups="perf")
+  public void setOperationsPerfTest() throws Exception
+  {
+    int bagSize = 100000;
+
+    // a few distinct sorted bags, reused for the larger numbers of inputs to bound memory
+    DataBag[] bags = new DataBag[4];
+    for (int b=0; b<bags.length; b++)
+    {
+      bags[b] = BagFactory.getInstance().newDefaultBag();
+      for (int i=0; i<bagSize; i++)
+      {
+        // bag b holds the multiples of b+1
+        bags[b].add(TupleFactory.getInstance().newTuple((Object)(i*(b+1))));
+      }
+    }
+
+    SetIntersect intersect = new SetIntersect();
+    SetDifference difference = new SetDifference();
+    for (int k=2; k<=32; k*=2)
+    {
+      Tuple input = TupleFactory.getInstance().newTuple(k);
+      for (int i=0; i<k; i++)
+      {
+        input.set(i, bags[i % bags.length]);
+      }
+
+      long startTime = System.nanoTime();
+      intersect.exec(input);
+      double intersectSeconds = (System.nanoTime() - startTime)/1.0e9;
+
+      startTime = System.nanoTime();
+      difference.exec(input);
+      double differenceSeconds = (System.nanoTime() - startTime)/1.0e9;
+
+      System.out.println(String.format("%d bags: SetIntersect %.0f tuples/second, SetDifference %.0f tuples/second",
+                                       k, k*bagSize/intersectSeconds, k*bagSize/differenceSeconds));
+    }
+  }
 }
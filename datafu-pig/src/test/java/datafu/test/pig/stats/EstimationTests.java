@@ -19,13 +19,20 @@
 
 package datafu.test.pig.stats;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.adrianwalker.multilinestring.Multiline;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.pigunit.PigTest;
 import org.testng.annotations.Test;
 
+import datafu.pig.stats.HyperLogLogPlusPlus;
 import datafu.test.pig.PigTests;
 import static org.testng.Assert.*;
 
@@ -70,4 +77,219 @@ public class EstimationTests extends PigTests
     System.out.println("error: " + error*100.0 + "%");
     assertTrue(error < 0.01);
   }
+
+  /**
+  
+  
+  define Sketch datafu.pig.stats.HyperLogLogPlusPlusSketch();
+  define MergeSketches datafu.pig.stats.HyperLogLogPlusPlusMerge();
+  define Estimate datafu.pig.stats.HyperLogLogPlusPlusEstimate();
+  
+  data_in = LOAD 'input' as (day:int, val:int);
+  
+  sketches = FOREACH (GROUP data_in BY day) GENERATE
+    group as day,
+    Sketch(data_in.val) as sketch;
+    
+  data_out = FOREACH (GROUP sketches ALL) GENERATE
+    Estimate(MergeSketches(sketches.sketch)) as cardinality;
+    
+  STORE data_out into 'output';
+   */
+  @Multiline private String hyperLogLogSketchMergeTest;
+  
+  @Test
+  public void hyperLogLogSketchMergeTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(hyperLogLogSketchMergeTest);
+
+    // three days of 400,000 values each, each day overlapping the previous by half
+    int days = 3;
+    int perDay = 400000;
+    int count = perDay + (days-1)*perDay/2;
+    String[] input = new String[days*perDay];
+    int j = 0;
+    for (int day=0; day<days; day++)
+    {
+      int start = day*perDay/2;
+      for (int i=start; i<start+perDay; i++)
+      {
+        input[j++] = day + "\t" + i*10;
+      }
+    }
+    
+    writeLinesToFile("input", input);
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),1);
+    double error = Math.abs(count-((Long)output.get(0).get(0)))/(double)count;
+    System.out.println("error: " + error*100.0 + "%");
+    assertTrue(error < 0.01);
+  }
+
+  /**
+  
+  
+  define HyperLogLogPlusPlus datafu.pig.stats.HyperLogLogPlusPlus('14');
+  
+  data_in = LOAD 'input' as (key:int, val:int);
+    
+  data_out = FOREACH (GROUP data_in BY key) GENERATE
+    group as key,
+    HyperLogLogPlusPlus(data_in.val) as cardinality;
+    
+  STORE data_out into 'output';
+   */
+  @Multiline private String hyperLogLogAlgebraicTest;
+  
+  @Test
+  public void hyperLogLogAlgebraicTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(hyperLogLogAlgebraicTest);
+
+    // key k has (k+1)*10000 distinct values, each repeated twice
+    int keys = 4;
+    List<String> input = new ArrayList<String>();
+    for (int k=0; k<keys; k++)
+    {
+      for (int rep=0; rep<2; rep++)
+      {
+        for (int i=0; i<(k+1)*10000; i++)
+        {
+          input.add(k + "\t" + i);
+        }
+      }
+    }
+    
+    writeLinesToFile("input", input.toArray(new String[0]));
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),keys);
+    for (Tuple t : output)
+    {
+      int count = ((Integer)t.get(0)+1)*10000;
+      double error = Math.abs(count-((Long)t.get(1)))/(double)count;
+      System.out.println("key " + t.get(0) + " error: " + error*100.0 + "%");
+      assertTrue(error < 0.03);
+    }
+  }
+
+  @Test
+  public void hyperLogLogAlgebraicDefaultPrecisionTest() throws Exception
+  {
+    HyperLogLogPlusPlus accumulator = new HyperLogLogPlusPlus();
+    HyperLogLogPlusPlus.Initial initial = new HyperLogLogPlusPlus.Initial("20", "tuple");
+    HyperLogLogPlusPlus.Intermediate intermediate = new HyperLogLogPlusPlus.Intermediate("20", "tuple");
+    HyperLogLogPlusPlus.Final fin = new HyperLogLogPlusPlus.Final("20", "tuple");
+    
+    // Initial is called per input row, its output is combined in two map-side batches, then merged
+    DataBag[] partials = { BagFactory.getInstance().newDefaultBag(), BagFactory.getInstance().newDefaultBag() };
+    int count = 1000;
+    for (int i=0; i<count; i++)
+    {
+      DataBag row = BagFactory.getInstance().newDefaultBag();
+      row.add(TupleFactory.getInstance().newTuple((Object)i));
+      Tuple input = TupleFactory.getInstance().newTuple(row);
+      
+      accumulator.accumulate(input);
+      
+      Tuple partial = initial.exec(input);
+      // a single value must not serialize to the full register array
+      assertTrue(((DataByteArray)partial.get(0)).size() < 100, "partial for one row is " + ((DataByteArray)partial.get(0)).size() + " bytes");
+      partials[i % 2].add(partial);
+    }
+    
+    DataBag intermediates = BagFactory.getInstance().newDefaultBag();
+    for (DataBag partial : partials)
+    {
+      intermediates.add(intermediate.exec(TupleFactory.getInstance().newTuple(partial)));
+    }
+    long algebraic = fin.exec(TupleFactory.getInstance().newTuple(intermediates));
+    
+    assertEquals(algebraic, accumulator.getValue().longValue());
+    double error = Math.abs(count-algebraic)/(double)count;
+    assertTrue(error < 0.01);
+  }
+
+  /**
+  
+  
+  define HyperLogLogPlusPlus datafu.pig.stats.HyperLogLogPlusPlus('20','murmur3');
+  
+  data_in = LOAD 'input' as (val:chararray);
+    
+  data_out = FOREACH (GROUP data_in ALL) GENERATE
+    HyperLogLogPlusPlus(data_in) as cardinality;
+    
+  STORE data_out into 'output';
+   */
+  @Multiline private String hyperLogLogMurmur3Test;
+  
+  @Test
+  public void hyperLogLogMurmur3Test() throws Exception
+  {
+    PigTest test = createPigTestFromString(hyperLogLogMurmur3Test);
+
+    int count = 1000000;
+    String[] input = new String[count];
+    for (int i=0; i<count; i++)
+    {
+      input[i] = "member" + i;
+    }
+    
+    writeLinesToFile("input", input);
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),1);
+    double error = Math.abs(count-((Long)output.get(0).get(0)))/(double)count;
+    System.out.println("error: " + error*100.0 + "%");
+    assertTrue(error < 0.01);
+  }
+  
+  @Test(groups="perf")
+  public void hyperLogLogHashingPerfTest() throws Exception
+  {
+    int batches = 20;
+    int batchSize = 50000;
+    
+    // build the input up front so only the estimator is measured
+    Tuple[] inputs = new Tuple[batches];
+    for (int i=0; i<batches; i++)
+    {
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      for (int j=0; j<batchSize; j++)
+      {
+        int id = i*batchSize+j;
+        bag.add(TupleFactory.getInstance().newTuple(Arrays.<Object>asList("member" + id, id)));
+      }
+      inputs[i] = TupleFactory.getInstance().newTuple(bag);
+    }
+    
+    for (String hashing : new String[] {"tuple", "murmur3"})
+    {
+      HyperLogLogPlusPlus estimator = new HyperLogLogPlusPlus("20", hashing);
+      
+      long startTime = System.nanoTime();
+      for (Tuple input : inputs)
+      {
+        estimator.accumulate(input);
+      }
+      long cardinality = estimator.getValue();
+      double seconds = (System.nanoTime() - startTime)/1.0e9;
+      
+      int count = batches*batchSize;
+      double error = Math.abs(count-cardinality)/(double)count;
+      System.out.println(String.format("HyperLogLogPlusPlus(%s): %.0f tuples/second, error: %.3f%%", 
+                                       hashing, count/seconds, error*100.0));
+    }
+  }
 }
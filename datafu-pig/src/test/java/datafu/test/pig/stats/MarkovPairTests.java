@@ -24,10 +24,14 @@ import static org.testng.Assert.*;
 import java.util.Iterator;
 
 import org.adrianwalker.multilinestring.Multiline;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.pigunit.PigTest;
 import org.testng.annotations.Test;
 
+import datafu.pig.stats.MarkovPairs;
 import datafu.test.pig.PigTests;
 
 public class MarkovPairTests extends PigTests
@@ -127,6 +131,38 @@ public class MarkovPairTests extends PigTests
     assertTuplesMatch(expectedOutput, actualOutput);
   }
   
+  @Test
+  public void markovPairsExecTest() throws Exception
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=1; i<=5; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)(i*10)));
+    }
+
+    DataBag output = new MarkovPairs("2").exec(TupleFactory.getInstance().newTuple(bag));
+
+    // the size is computed without generating the pairs
+    assertEquals(output.size(), 7);
+    assertEquals(output.toString(), "{((10),(20)),((10),(30)),((20),(30)),((20),(40)),((30),(40)),((30),(50)),((40),(50))}");
+  }
+
+  @Test
+  public void markovPairsZeroLookaheadTest() throws Exception
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=1; i<=5; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)(i*10)));
+    }
+
+    // no tuple looks ahead to any other, so there are no pairs
+    DataBag output = new MarkovPairs("0").exec(TupleFactory.getInstance().newTuple(bag));
+
+    assertEquals(output.size(), 0);
+    assertFalse(output.iterator().hasNext());
+  }
+
   private void assertTuplesMatch(String[] expectedOutput, Iterator<Tuple> actualOutput)
   {
     Iterator<Tuple> tuples = actualOutput;
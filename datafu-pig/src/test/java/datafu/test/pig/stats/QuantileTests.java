@@ -22,7 +22,9 @@ package datafu.test.pig.stats;
 import static org.testng.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import junit.framework.Assert;
 
@@ -512,6 +514,157 @@ public class QuantileTests  extends PigTests
     Assert.assertEquals(20.0, result.get(3));
   }
   
+  @Test
+  public void streamingQuantileAlgebraicTest() throws Exception {
+    StreamingQuantile.Initial initial = new StreamingQuantile.Initial("4");
+    StreamingQuantile.Intermediate intermediate = new StreamingQuantile.Intermediate("4");
+    StreamingQuantile.Final finalQuantile = new StreamingQuantile.Final("4");
+    
+    // split 1..10 across three map-side partial estimates
+    DataBag[] bags = new DataBag[3];
+    for (int i=0; i<bags.length; i++)
+    {
+      bags[i] = BagFactory.getInstance().newDefaultBag();
+    }
+    for (int i=1; i<=10; i++)
+    {
+      Tuple t = TupleFactory.getInstance().newTuple(1);
+      t.set(0, i);
+      bags[i % bags.length].add(t);
+    }
+    
+    DataBag initials = BagFactory.getInstance().newDefaultBag();
+    for (DataBag bag : bags)
+    {
+      initials.add(initial.exec(TupleFactory.getInstance().newTuple(bag)));
+    }
+    
+    DataBag intermediates = BagFactory.getInstance().newDefaultBag();
+    intermediates.add(intermediate.exec(TupleFactory.getInstance().newTuple(initials)));
+    
+    Tuple result = finalQuantile.exec(TupleFactory.getInstance().newTuple(intermediates));
+    Assert.assertEquals(4, result.size());
+    Assert.assertEquals(1.0, result.get(0));
+    Assert.assertEquals(4.0, result.get(1));
+    Assert.assertEquals(7.0, result.get(2));
+    Assert.assertEquals(10.0, result.get(3));
+    
+    Assert.assertEquals("datafu.pig.stats.StreamingQuantile$Initial('0.5','1.0')", 
+                        new StreamingQuantile("0.5","1.0").getInitial());
+  }
+  
+  @Test
+  public void streamingQuantileAlgebraicLargeTest() throws Exception {
+    // with 11 quantiles each buffer holds 128 values, so thousands of values per partial fill the
+    // higher levels, which merging must copy or collapse together
+    StreamingQuantile.Initial initial = new StreamingQuantile.Initial("11");
+    StreamingQuantile.Intermediate intermediate = new StreamingQuantile.Intermediate("11");
+    StreamingQuantile.Final finalQuantile = new StreamingQuantile.Final("11");
+    StreamingQuantile quantile = new StreamingQuantile("11");
+    
+    int n = 20000;
+    List<Integer> values = new ArrayList<Integer>();
+    for (int i=1; i<=n; i++)
+    {
+      values.add(i);
+    }
+    Collections.shuffle(values, new Random(1));
+    
+    // split the values across five map-side partial estimates, while also accumulating them
+    DataBag[] bags = new DataBag[5];
+    for (int i=0; i<bags.length; i++)
+    {
+      bags[i] = BagFactory.getInstance().newDefaultBag();
+    }
+    for (int i=0; i<n; i++)
+    {
+      Tuple t = TupleFactory.getInstance().newTuple(1);
+      t.set(0, values.get(i));
+      bags[i % bags.length].add(t);
+      
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      bag.add(t);
+      quantile.accumulate(TupleFactory.getInstance().newTuple(bag));
+    }
+    
+    // combine the partials in two intermediates so the final step merges again
+    DataBag[] initials = new DataBag[2];
+    for (int i=0; i<initials.length; i++)
+    {
+      initials[i] = BagFactory.getInstance().newDefaultBag();
+    }
+    for (int i=0; i<bags.length; i++)
+    {
+      initials[i % initials.length].add(initial.exec(TupleFactory.getInstance().newTuple(bags[i])));
+    }
+    
+    DataBag intermediates = BagFactory.getInstance().newDefaultBag();
+    for (DataBag bag : initials)
+    {
+      intermediates.add(intermediate.exec(TupleFactory.getInstance().newTuple(bag)));
+    }
+    
+    Tuple result = finalQuantile.exec(TupleFactory.getInstance().newTuple(intermediates));
+    Tuple expected = quantile.getValue();
+    
+    Assert.assertEquals(11, result.size());
+    Assert.assertEquals(11, expected.size());
+    Assert.assertEquals(1.0, result.get(0));
+    Assert.assertEquals((double)n, result.get(10));
+    
+    // the values are 1..n, so each value is its own rank, which must be within epsilon*n of the exact 
+    // rank, where the estimator is sized for epsilon = 1/(numQuantiles-1)
+    double maxError = n / 10.0;
+    for (int i=0; i<11; i++)
+    {
+      double exact = 1 + (n - 1) * i / 10.0;
+      double actual = (Double)result.get(i);
+      Assert.assertTrue("quantile " + i + " is " + actual + ", expected about " + exact, 
+                        Math.abs(actual - exact) <= maxError);
+      Assert.assertTrue("quantile " + i + " is " + actual + ", accumulated " + expected.get(i), 
+                        Math.abs(actual - (Double)expected.get(i)) <= maxError);
+    }
+  }
+  
+  @Test(groups="perf")
+  public void streamingQuantilePerfTest() throws Exception {
+    StreamingQuantile quantile = new StreamingQuantile("101");
+    
+    int batches = 10000;
+    int batchSize = 1000;
+    
+    // build the input up front so only the estimator is measured, reusing 1M values across 
+    // the batches so the input does not fill the heap
+    Random random = new Random(42);
+    Tuple[] inputs = new Tuple[1000];
+    for (int i=0; i<inputs.length; i++)
+    {
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      for (int j=0; j<batchSize; j++)
+      {
+        bag.add(TupleFactory.getInstance().newTuple(random.nextGaussian()));
+      }
+      inputs[i] = TupleFactory.getInstance().newTuple(bag);
+    }
+    
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    long startHeap = runtime.totalMemory() - runtime.freeMemory();
+    long startTime = System.nanoTime();
+    
+    for (int i=0; i<batches; i++)
+    {
+      quantile.accumulate(inputs[i % inputs.length]);
+    }
+    quantile.getValue();
+    
+    double seconds = (System.nanoTime() - startTime)/1.0e9;
+    long heapGrowth = runtime.totalMemory() - runtime.freeMemory() - startHeap;
+    
+    System.out.println(String.format("StreamingQuantile: %.0f values/second, heap grew by %d KB", 
+                                     batches*batchSize/seconds, heapGrowth/1024));
+  }
+  
   @Test
   public void quantileParamsTest() throws Exception {
     List<Double> quantiles = QuantileUtil.getQuantilesFromParams("5");
@@ -19,10 +19,21 @@
 
 package datafu.test.pig.text;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Assert;
+
 import org.adrianwalker.multilinestring.Multiline;
 import org.apache.pig.pigunit.PigTest;
 import org.testng.annotations.Test;
 
+import datafu.pig.text.opennlp.SharedModel;
 import datafu.test.pig.PigTests;
 
 
@@ -90,6 +101,35 @@ public class NLPTests extends PigTests
                 "({(Yet),(another),(sentence),(.),(One),(more),(just),(for),(luck),(.)})");
     }
 
+    /**
+
+     define TokenizeME datafu.pig.text.opennlp.TokenizeME('$DATA_DIR/en-token.bin');
+     define TokenizeME2 datafu.pig.text.opennlp.TokenizeME('$DATA_DIR/en-token.bin');
+
+     data = LOAD 'input' AS (text: chararray);
+
+     data2 = FOREACH data GENERATE text, TokenizeME(text) AS tokens;
+
+     data3 = FOREACH data2 GENERATE tokens, TokenizeME2(text) AS tokens2;
+
+     STORE data3 INTO 'output';
+     */
+    @Multiline
+    private String tokenizeMESharedModelTest;
+
+    @Test
+    public void tokenizeMESharedModelTest() throws Exception
+    {
+        // both instances share the one model loaded in the task
+        PigTest test = createPigTestFromString(tokenizeMESharedModelTest);
+
+        writeLinesToFile("input",
+                "This is a sentence.");
+
+        assertOutput(test, "data3",
+                "({(This),(is),(a),(sentence),(.)},{(This),(is),(a),(sentence),(.)})");
+    }
+
     /**
 
      define TokenizeSimple datafu.pig.text.opennlp.TokenizeSimple();
@@ -187,4 +227,122 @@ public class NLPTests extends PigTests
                 "({(This,DT,0.9649410482478001),(is,VBZ,0.9982592902509803),(a,DT,0.9967282012835504),(sentence,NN,0.9772619256460584),(.,.,0.4391067883074289),(This,DT,0.8346710130761914),(is,VBZ,0.9928885242823617),(another,DT,0.9761159923140399),(sentence,NN,0.9964463493238542),(.,.,0.9856037689871404)})",
                 "({(Yet,RB,0.7638997090011364),(another,DT,0.9657669183153523),(sentence,NN,0.989193114719676),(.,.,0.20091718589945456),(One,CD,0.9229251494813668),(more,JJR,0.9360382000551335),(just,RB,0.8646324491545225),(for,IN,0.9851765355889605),(luck,NN,0.9883408827371651),(.,.,0.9746378518791978)})");
     }
+
+    /**
+
+     define POSTagPipeline datafu.pig.text.opennlp.POSTagPipeline('$DATA_DIR/en-sent.bin', '$DATA_DIR/en-token.bin', '$DATA_DIR/en-pos-maxent.bin');
+
+     data = LOAD 'input' AS (text: chararray);
+
+     data2 = FOREACH data GENERATE POSTagPipeline(text) AS tagged;
+
+     STORE data2 INTO 'output';
+     */
+    @Multiline
+    private String POSTagPipelineTest;
+
+    @Test
+    public void POSTagPipelineTest() throws Exception
+    {
+        PigTest test = createPigTestFromString(POSTagPipelineTest);
+
+        writeLinesToFile("input",
+                "This is a sentence. This is another sentence.",
+                "Yet another sentence. One more just for luck.");
+
+        assertOutput(test, "data2",
+                "({(0,This,DT),(0,is,VBZ),(0,a,DT),(0,sentence,NN),(0,.,.),(1,This,DT),(1,is,VBZ),(1,another,DT),(1,sentence,NN),(1,.,.)})",
+                "({(0,Yet,RB),(0,another,DT),(0,sentence,NN),(0,.,.),(1,One,CD),(1,more,JJR),(1,just,RB),(1,for,IN),(1,luck,NN),(1,.,.)})");
+    }
+
+    /**
+     * A model that is just a new string per load, counting the loads.
+     */
+    private static class CountingModel extends SharedModel<String, StringBuilder>
+    {
+        static int loads;
+
+        CountingModel(String path)
+        {
+            super(String.class, path, path);
+        }
+
+        @Override
+        protected String loadModel(InputStream in) throws IOException
+        {
+            loads++;
+            return new String("model");
+        }
+
+        @Override
+        protected StringBuilder createTool(String model)
+        {
+            return new StringBuilder(model);
+        }
+    }
+
+    @Test
+    public void sharedModelTest() throws Exception
+    {
+        File file = File.createTempFile("model", ".bin");
+        file.deleteOnExit();
+        new FileWriter(file).close();
+        String path = file.getAbsolutePath();
+        CountingModel.loads = 0;
+
+        // two holders of the same file share one load
+        CountingModel first = new CountingModel(path);
+        CountingModel second = new CountingModel(path);
+        Assert.assertNotNull(first.get());
+        Assert.assertNotNull(second.get());
+        Assert.assertEquals(1, CountingModel.loads);
+        Assert.assertSame(first.getModel(), second.getModel());
+
+        // the model stays cached while either holder has not released it
+        String model = first.getModel();
+        first.release();
+        Assert.assertSame(model, second.getModel());
+        second.release();
+
+        // once both released, the entry left the cache, so the next holder loads it again
+        CountingModel third = new CountingModel(path);
+        Assert.assertNotSame(model, third.getModel());
+        Assert.assertEquals(2, CountingModel.loads);
+        third.release();
+    }
+
+    @Test
+    public void sharedModelReacquiredTest() throws Exception
+    {
+        File file = File.createTempFile("model", ".bin");
+        file.deleteOnExit();
+        new FileWriter(file).close();
+        final CountingModel holder = new CountingModel(file.getAbsolutePath());
+
+        Callable<StringBuilder> getTool = new Callable<StringBuilder>() {
+            @Override
+            public StringBuilder call() throws Exception
+            {
+                return holder.get();
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            StringBuilder tool = executor.submit(getTool).get();
+            Assert.assertSame(tool, executor.submit(getTool).get());
+
+            // releasing from this thread leaves the other thread's tool built from the old model,
+            // so it must be rebuilt once the model is acquired again
+            holder.release();
+            Assert.assertNotNull(holder.get());
+            Assert.assertNotSame(tool, executor.submit(getTool).get());
+        }
+        finally
+        {
+            executor.shutdown();
+            holder.release();
+        }
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.test.pig.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.BinInterSedes;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.testng.annotations.Test;
+
+import datafu.pig.util.LazyPairsBag;
+
+public class LazyPairsBagTests
+{
+  @Test
+  public void blockPairsTest() throws Exception
+  {
+    // a small buffer, so the pairs are generated by reading the source in blocks
+    for (long lookahead : new long[] {1, 3, 7, 20, LazyPairsBag.UNBOUNDED})
+    {
+      for (int bufferSize : new int[] {1, 2, 5, 8})
+      {
+        LazyPairsBag pairs = new LazyPairsBag(bagOfRange(20), lookahead, bufferSize);
+
+        Set<String> expected = new HashSet<String>();
+        for (int i=0; i<20; i++)
+        {
+          for (int j=i+1; j<20 && j-i<=lookahead; j++)
+          {
+            expected.add(i + "," + j);
+          }
+        }
+
+        Set<String> actual = new HashSet<String>();
+        for (Tuple pair : pairs)
+        {
+          String s = ((Tuple)pair.get(0)).get(0) + "," + ((Tuple)pair.get(1)).get(0);
+          Assert.assertTrue("duplicate pair " + s, actual.add(s));
+        }
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(expected.size(), pairs.size());
+      }
+    }
+  }
+
+  @Test
+  public void zeroLookaheadTest() throws Exception
+  {
+    LazyPairsBag pairs = new LazyPairsBag(bagOfRange(5), 0);
+    Assert.assertEquals(0, pairs.size());
+    Assert.assertFalse(pairs.iterator().hasNext());
+  }
+
+  @Test
+  public void serializationTest() throws Exception
+  {
+    // Pig serializes bags by iterating over them, so the pairs come back materialized
+    LazyPairsBag pairs = new LazyPairsBag(bagOfRange(4), 2);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinInterSedes sedes = new BinInterSedes();
+    sedes.writeDatum(new DataOutputStream(bytes), pairs);
+    Object result = sedes.readDatum(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    Assert.assertTrue(result instanceof DataBag);
+    Assert.assertFalse(result instanceof LazyPairsBag);
+    Assert.assertEquals(5, ((DataBag)result).size());
+    Assert.assertEquals("{((0),(1)),((0),(2)),((1),(2)),((1),(3)),((2),(3))}", result.toString());
+  }
+
+  private static DataBag bagOfRange(int n)
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<n; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)i));
+    }
+    return bag;
+  }
+}